@@ -1,32 +1,68 @@
 package ext.sim.agents;
 
+import java.io.IOException;
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import bgu.dcr.az.api.agt.*;
 import bgu.dcr.az.api.ano.*;
 import bgu.dcr.az.api.tools.*;
+import ext.sim.tools.CostBound;
+import ext.sim.tools.ValueOrdering;
+import ext.sim.tools.privacy.CiphertextOps;
 import ext.sim.tools.privacy.Paillier;
+import ext.sim.tools.privacy.PaillierCryptoService;
+import ext.sim.tools.privacy.PaillierKeyPool;
+import ext.sim.tools.privacy.PaillierPublicKey;
+import ext.sim.tools.privacy.PaillierRandomizerPool;
+import ext.sim.tools.privacy.PrecomputedDotProduct;
+import ext.sim.tools.privacy.RandomnessProvider;
+import ext.sim.tools.privacy.SecureComparison;
 
 /**
  * This is an implementation of the PC-SyncBB algorithm, which is a privacy-preserving version of SyncBB that
  * is immune to colluder coalitions of up to half the number of agents.
- * This implementation does not include the implementation of the compare_CPA_cost_to_upper_bound() sub-protocol,
- * since compare_CPA_cost_to_upper_bound() is executed separately over LAN with EC2 machines of type 
- * c5.large in Amazon's North Virginia data center, with every agent running on a separate machine, in order to
- * faithfully simulate a really distributed environment.
- * Because compare_CPA_cost_to_upper_bound() is not implemented in AgentZero, the algorithm's flow is maintained
- * by SyncBB (which is perfectly emulated by PC-SyncBB in the first place).
+ * By default (compare-protocol = EMULATED) this implementation does not include the implementation of the
+ * compare_CPA_cost_to_upper_bound() sub-protocol, since compare_CPA_cost_to_upper_bound() is executed separately
+ * over LAN with EC2 machines of type c5.large in Amazon's North Virginia data center, with every agent running on a
+ * separate machine, in order to faithfully simulate a really distributed environment.
+ * In this mode the algorithm's flow is maintained by SyncBB (which is perfectly emulated by PC-SyncBB in the first place).
  * The number of calls to compare_CPA_cost_to_upper_bound() is collected by counter2, in order to compute all the
  * statistics (runtime, number of messages, network load).
+ * With compare-protocol = BLINDED or DGK, compare_CPA_cost_to_upper_bound() runs in the simulator as a secure comparison
+ * (see BlindedComparison and DgkComparison) over the shares of the costs of the constraints (shareCPA) and of the upper bound
+ * (shareUpperBound), so its runtime and messages are measured by the statistics of AgentZero.
+ * 
+ * With delta-vector-z = true, a successor keeps the last vector Z that it got from every predecessor, and the predecessor
+ * replies only the ciphertexts that changed since the version of its successor (the ONE moves from the old value to the new
+ * value, and only these two positions and delta-decoys random other positions are rerandomized), or the whole vector if
+ * the successor has no recent version (e.g., after the successor backtracked, which it announces by ZERO_SHARE).
+ * This weakens the privacy of the assignments: the positions that change between versions are visible, so a successor
+ * learns that the old and the new values are among the 2 + delta-decoys changed positions, and it can narrow the values
+ * down by intersecting consecutive deltas. Thus this mode is meant for measuring the traffic, not for the published guarantees.
+ * 
+ * With forward-bounding = true, compare_CPA_cost_to_upper_bound() of an agent k adds to the cost of the CPA the sum of
+ * the minimal costs of the agents after k with their predecessors (forwardBound), which is a lower bound on the cost of
+ * any completion of the CPA, so hopeless CPAs are pruned before the later agents are assigned. Every agent gets its
+ * forwardBound once, by a secure summation at start-up over the later agents (see handleFORWARDBOUND). The minimal costs
+ * include the unary costs, so forwardBound is a lower bound only because the cost of the CPA counts the unary costs
+ * too, also in the secure comparisons (see comparisonParty).
  * 
  * The counter variables are used for computing the network load (there is no such statistic available in AgentZero).
  * 
- * Please note that for running meeting scheduling (MS) problems the first lines of start() should be changed because
- * the MAX-COST is computed differently in MS problems (lines 76-84 should be commented-out, whereas line 87 should
- * be placed in comments).
+ * The bounds on the costs (MAX_COST, and the cost bound from which the bit width S_DIGIT of the shares and of the masks
+ * is derived) are taken from the metadata of the problem (see CostBound), so they are tight for every generator,
+ * including the meeting scheduling (MS) generators, whose hard constraints are much more expensive than the other ones.
  * 
  * @author Tal Grinshpoun
  *
@@ -36,11 +72,13 @@ import ext.sim.tools.privacy.Paillier;
 public class PCSyncBBAgent extends SimpleAgent {
 
 	private static final int EMPTY = -1;
+	private static final int FORWARD_BOUND_MASK_BITS = 64; // The statistical hiding of the partial sums of forwardBound by its mask
 	
-	public static int maxCost;
 	private BigInteger[] shareCPA;
 	private BigInteger shareUpperBound;
 	private BigInteger[] vectorZ;
+	private CompletableFuture<BigInteger[]> pendingVectorZ; // The rerandomization of vectorZ, while it is computed asynchronously
+	private HashMap<Integer, CompletableFuture<BigInteger>> pendingShares; // The decryptions of Y shares, while they are computed asynchronously
 	private int pk;
 	private int optimalSetting;
 	private Assignment cpa;
@@ -49,62 +87,144 @@ public class PCSyncBBAgent extends SimpleAgent {
 	private int decisionCounter; // A counter used by the first agent to count the number of received final decisions
 	private int numOfPredecessorNeighbors;
 	private Paillier paillier; // A Paillier cryptosystem used by the agent
-	private Paillier[] cryptoSystems; // Array of cryptosystems held by each agent for its preceding agents as a substitute for public keys
-	private int N;
-	private int M;
-	private int MIN_MEETING_IMPORTANCE; 
-	private int MEETING_IMPORTANCE_RANGE; 
-	private int MIN_TIME_COST;
-	private int TIME_COST_RANGE;
-	private int MAX_COST_SOFT;
-	private int MAX_COST;
+	private PaillierPublicKey[] cryptoSystems; // Array of public keys held by each agent for its preceding agents
+	private int MAX_COST; // The maximal cost of a constraint
+	private long costBound; // The maximal cost of an assignment (see CostBound)
 	private int S_DIGIT;
-	private int S_SIZE;
 	private int vectorZCounter; // A counter used in the update_shares_inCPA procedure to count the number of received Z vectors
 	private int oldVal; // Remember in which index in vectorZcounter the encrypted value is ONE
+	private int vectorZVersion; // Incremented whenever vectorZ gets new ciphertexts (sent with REPLY_VECTOR_Z)
 	
     public int counter1 = 0; // Counting the number of messages containing Paillier public keys
     public int counter2 = 0; // Counting the number of calls to compare_CPA_cost_to_upper_bound()
     public int counter3 = 0; // Counting the number of encrypted messages
     
-    public int prune_counter = 0;
+    public int prune_counter = 0; // Counting the number of values pruned by compare_CPA_cost_to_upper_bound()
+    
+    @Variable(name="simple-generator", description="use g=n+1 in Paillier (false reproduces the published g=2 results)", defaultValue="true")
+    boolean simpleGenerator = true;
+    
+    @Variable(name="modulus-bits", description="number of bits of the Paillier modulus (e.g., 1024, 2048 or 3072 instead of the published 512)", defaultValue="512")
+    int modulusBits = 512;
+    
+    @Variable(name="key-pool", description="file of pregenerated Paillier keys (empty for generating fresh keys)", defaultValue="")
+    String keyPool = "";
+    
+    @Variable(name="sieve-primes", description="generate the primes of fresh keys with SievePrimeGenerator instead of the BigInteger constructor (not faster on a single core, see Paillier.testPrimeGeneration)", defaultValue="false")
+    boolean sievePrimes = false;
+    
+    @Variable(name="ciphertext-ops", description="arithmetic of the ciphertext operations: BIGINTEGER or MONTGOMERY (fewer allocations for multiplications and short powers; dot products as BIGINTEGER)", defaultValue="BIGINTEGER")
+    String ciphertextOps = "BIGINTEGER";
+    private CiphertextOps.Backend ciphertextBackend;
+    
+    @Variable(name="randomizer-mode", description="computation of Paillier randomizers: STANDARD or FIXED_BASE (about 1.1-1.2x faster measured, but short exponents: the randomizers are not uniform over the n-th residues, see FixedBaseRandomizer)", defaultValue="STANDARD")
+    String randomizerMode = "STANDARD";
+    
+    @Variable(name="randomizer-pool", description="precompute Paillier randomizers in a background pool", defaultValue="false")
+    boolean useRandomizerPool = false;
+    private PaillierRandomizerPool randomizerPool = null;
+    
+    @Variable(name="secure-random", description="draw keys, masks and exponents from a SecureRandom instead of streams seeded by alg-seed", defaultValue="false")
+    boolean secureRandom = false;
+    private RandomnessProvider randomness; // The source of all the random numbers of the agent
+    
+    @Variable(name="async-crypto", description="run the rerandomizations, decryptions and dot products on a shared worker pool, overlapping with the handling of other messages", defaultValue="false")
+    boolean asyncCrypto = false;
+    private PaillierCryptoService crypto;
+    
+    @Variable(name="parallel-replies", description="gather the REPLY_VECTOR_Z of all the predecessor neighbors and compute their Y_t in parallel on the shared worker pool", defaultValue="false")
+    boolean parallelReplies = false;
+    private LinkedHashMap<Integer, BigInteger[]> replies; // The vectors Z of the predecessor neighbors that wait for the last one (in the order of their arrival)
+    private LinkedHashMap<Integer, Integer> replyVersions; // The versions of the vectors Z in replies
+    
+    @Variable(name="yt-cache-size", description="maximal number of vectors Z of predecessor neighbors whose intermediate powers are kept for computing Y_t (0 disables the cache)", defaultValue="0")
+    int ytCacheSize = 0;
+    private LinkedHashMap<Integer, CachedVectorZ> ytCache; // The precomputed powers of the last vector Z of every predecessor neighbor, in LRU order
+    private int ytCacheHits, ytCacheMisses;
+    
+    @Variable(name="delta-vector-z", description="reply to REQUEST_VECTOR_Z only with the ciphertexts that changed since the last reply to the same successor (weakens the privacy of the assignments, see the class comment)", defaultValue="false")
+    boolean deltaVectorZ = false;
+    @Variable(name="delta-decoys", description="number of unchanged positions of vector Z that are rerandomized and sent with every delta", defaultValue="2")
+    int deltaDecoys = 2;
+    private int[] deltaIndices; // The positions of vectorZ that changed in the last version (null if there is no previous version)
+    private int[] sentVersion; // The version of vectorZ that every successor holds (-1 if none)
+    private BigInteger[][] heldVectorZ; // The last vector Z that the agent got from every predecessor
+    
+    @Variable(name="compare-protocol", description="compare_CPA_cost_to_upper_bound(): EMULATED (the check lb < ub of SyncBB, as in the published results) or a secure comparison over the shares (BLINDED: multiplicative blinding, DGK: bitwise DGK comparison with precomputed encrypted bits)", defaultValue="EMULATED")
+    String compareProtocol = "EMULATED";
+    private SecureComparison comparison; // The secure comparison protocol of the agent (null in the EMULATED mode)
+    private List<Runnable> waitingForKeys; // Steps of comparisons that wait for the public keys of the aggregators
+    private Random rand; // The stream of the masks and exponents
+    
+    @Variable(name="value-ordering", description="order in which the values are tried for every CPA: RANDOM, UNARY (unary projection of the constraints) or PREDECESSOR (average cost of the constraints with the predecessors)", defaultValue="RANDOM")
+    String valueOrdering = "RANDOM";
+    private ValueOrdering ordering;
+    private Map<Integer, Double> valueScores; // The scores of the values of the agent by the ordering (computed once)
+    
+    @Variable(name="forward-bounding", description="add to the cost of the CPA a lower bound on the costs of the later agents with their predecessors, which every agent gets by a secure summation at start-up", defaultValue="false")
+    boolean forwardBounding = false;
+    private long forwardBound; // The sum of the minimal costs of the later agents (0 without forward bounding)
+    private BigInteger forwardBoundMask; // The mask of the secure summation of forwardBound
+    private List<Runnable> waitingForBound; // Comparisons that wait for forwardBound (null once it is known)
     
     
     @Override
     public void start() {
-    	// MAX_COST in MS problems:
-    	// ------------------------
- /*   	N = 3;
-    	M = getNumberOfVariables()/2;
-    	MIN_MEETING_IMPORTANCE = 5;
-    	MEETING_IMPORTANCE_RANGE = 5;
-    	MIN_TIME_COST = 0;
-    	TIME_COST_RANGE = 4;
-    	MAX_COST_SOFT = Math.max(2*N, MIN_MEETING_IMPORTANCE + MEETING_IMPORTANCE_RANGE) + MIN_TIME_COST + TIME_COST_RANGE;
-    	// This is the cost of a hard constraint (MAX_COST_SOFT times the combinations of meetings and the num of agents)
-    	MAX_COST = MAX_COST_SOFT * M * M * N;   */
-    	// MAX_COST in non-MS problems is just max-cost from the problem meta-data:
-    	// ------------------------------------------------------------------------
-    	MAX_COST = (Integer) getProblem().getMetadata().get("max-cost");
-    	
-    	S_DIGIT = (int) (Math.ceil(Math.log(getNumberOfVariables() * (getNumberOfVariables() -1) * MAX_COST) / Math.log(2)));
-    	S_SIZE = (int) (Math.pow(2.0, S_DIGIT));
-    	
+    	// The bounds on the costs are published by the problem generator (see CostBound); without them, the bounds
+    	// are derived from max-cost and the number of pairs of agents
+    	Map<String, Object> metadata = getProblem().getMetadata();
+    	MAX_COST = (Integer) (metadata.containsKey(CostBound.MAX_CONSTRAINT_COST) ? metadata.get(CostBound.MAX_CONSTRAINT_COST) : metadata.get("max-cost"));
+    	costBound = metadata.containsKey(CostBound.COST_BOUND) ? (Long) metadata.get(CostBound.COST_BOUND)
+    			: (long) MAX_COST * ((getNumberOfVariables()*(getNumberOfVariables()-1))/2);
     	
-    	//System.out.println("S_DIGIT: "+S_DIGIT+", S_SIZE: "+S_SIZE);
+    	S_DIGIT = Math.max(1, (int) (Math.ceil(Math.log(2.0 * costBound) / Math.log(2))));
     	
-    	paillier = new Paillier();
-    	cryptoSystems = new Paillier[getNumberOfVariables()];
+    	randomness = RandomnessProvider.forAgent(getAlgSeed(), getId(), secureRandom ? RandomnessProvider.Mode.SECURE : RandomnessProvider.Mode.SPLITTABLE);
+    	rand = randomness.newStream();
+    	paillier = createPaillier();
+    	ciphertextBackend = CiphertextOps.Backend.valueOf(ciphertextOps.toUpperCase());
+    	paillier.setCiphertextBackend(ciphertextBackend);
+    	paillier.setRandomizerMode(Paillier.RandomizerMode.valueOf(randomizerMode.toUpperCase()));
+    	if (useRandomizerPool) {
+    		randomizerPool = new PaillierRandomizerPool(paillier);
+    		paillier.setRandomizer(randomizerPool);
+    	}
+    	cryptoSystems = new PaillierPublicKey[getNumberOfVariables()];
+    	crypto = PaillierCryptoService.get(asyncCrypto);
+    	comparison = null;
+    	waitingForKeys = new ArrayList<>();
+    	if (!compareProtocol.equalsIgnoreCase("EMULATED") && getNumberOfVariables() > 1)
+    		comparison = SecureComparison.Protocol.valueOf(compareProtocol.toUpperCase()).create(comparisonParty(), S_DIGIT + 1);
+    	ordering = ValueOrdering.valueOf(valueOrdering.toUpperCase());
+    	valueScores = ordering.scores(getProblem(), getId());
+    	pendingVectorZ = null;
+    	pendingShares = new HashMap<>();
+    	replies = new LinkedHashMap<>();
+    	replyVersions = new LinkedHashMap<>();
+    	ytCache = new LinkedHashMap<Integer, CachedVectorZ>(16, 0.75f, true) {
+    		@Override
+    		protected boolean removeEldestEntry(Map.Entry<Integer, CachedVectorZ> eldest) {
+    			return size() > ytCacheSize;
+    		}
+    	};
+    	ytCacheHits = 0;
+    	ytCacheMisses = 0;
     	
     	shareCPA = new BigInteger[getNumberOfVariables()];
     	for (int t=0; t<shareCPA.length; t++)
     		shareCPA[t] = BigInteger.ZERO;
     	
-    	vectorZ = new BigInteger[getDomainOf(getId()).size()];
-    	vectorZ[0] = paillier.Encryption(BigInteger.ONE);
+    	BigInteger[] plainZ = new BigInteger[getDomainOf(getId()).size()];
+    	plainZ[0] = BigInteger.ONE;
     	oldVal = 0;
-    	for (int t=1; t<vectorZ.length; t++)
-    		vectorZ[t] = paillier.Encryption(BigInteger.ZERO);
+    	vectorZVersion = 0;
+    	deltaIndices = null;
+    	sentVersion = new int[getNumberOfVariables()];
+    	Arrays.fill(sentVersion, -1);
+    	heldVectorZ = new BigInteger[getNumberOfVariables()][];
+    	for (int t=1; t<plainZ.length; t++)
+    		plainZ[t] = BigInteger.ZERO;
+    	vectorZ = paillier.encryptAll(plainZ);
     	
     	pk = EMPTY;
     	ub = Integer.MAX_VALUE;
@@ -113,14 +233,29 @@ public class PCSyncBBAgent extends SimpleAgent {
 		for (int t : getNeighbors())
 			if (t > getId()) {		
 				counter1++;
-				send("PUBLIC_KEY", getId(), paillier).to(t);
+				send("PUBLIC_KEY", getId(), paillier.getPublicKey()).to(t);
 			}
+		// The secure summation of forwardBound passes a masked sum through the later agents, from the last agent back
+		// to the agent (see handleFORWARDBOUND)
+		forwardBound = 0;
+		waitingForBound = null;
+		if (forwardBounding && !isLastAgent()) {
+			waitingForBound = new ArrayList<>();
+			forwardBoundMask = new BigInteger(S_DIGIT + FORWARD_BOUND_MASK_BITS, rand);
+			send("FORWARD_BOUND", getId(), forwardBoundMask).toLastAgent();
+		}
+		// The keys of the aggregators of the secure comparisons are sent to all the other agents
+		if (comparison != null && (getId() == SecureComparison.getAggregator(1) || getId() == SecureComparison.getAggregator(0)))
+			for (int t=0; t<getNumberOfVariables(); t++)
+				if (t != getId() && !(t > getId() && getNeighbors().contains(t))) {
+					counter1++;
+					send("PUBLIC_KEY", getId(), paillier.getPublicKey()).to(t);
+				}
     	
         if (isFirstAgent()) {
         	decisionCounter = 0;
-        	//maxCost = (Integer) getProblem().getMetadata().get("max-cost");
-			int qInfinity = MAX_COST*((getNumberOfVariables()*(getNumberOfVariables()-1))/2)+1;
-			shareUpperBound = new BigInteger(Integer.toString(qInfinity));
+			long qInfinity = costBound + 1;
+			shareUpperBound = BigInteger.valueOf(qInfinity);
 			cpa = new Assignment();
 			assignCPA();
         }
@@ -135,7 +270,7 @@ public class PCSyncBBAgent extends SimpleAgent {
 	private void assignCPA() {
 		if (pk == EMPTY) {
 			currentDomain = new ArrayList<>(getDomainOf(getId()));
-			java.util.Collections.shuffle(currentDomain);
+			ordering.order(currentDomain, valueScores, rand);
 		}
 		pk++;
 		
@@ -144,7 +279,9 @@ public class PCSyncBBAgent extends SimpleAgent {
 		else {
 			Integer newVal = currentDomain.get(pk);
 			cpa.assign(getId(), newVal);
-			counter3 += (numOfPredecessorNeighbors*getDomainOf(getId()).size());
+			// In the delta mode the ciphertexts are counted when they arrive (see handleREPLYVECTORZDELTA)
+			if (!deltaVectorZ)
+				counter3 += (numOfPredecessorNeighbors*getDomainOf(getId()).size());
 			// Run update_shares_inCPA(getId(), newVal);
 			vectorZCounter = 0;
 			for (int t : getNeighbors())
@@ -159,40 +296,87 @@ public class PCSyncBBAgent extends SimpleAgent {
 	
 	private void updateSharesInCPAFisinshed() {
 		//System.out.println("updateSharesInCPAFisinshed by agent "+getId());
-		int lb = cpa.calcCost(getProblem());
+		final int lb = cpa.calcCost(getProblem());
 		
 		if (isLastAgent()) {
 			counter2++;
-			// Run compare_CPA_cost_to_upper_bound();
-			// The answer of compare_CPA_cost_to_upper_bound() should be checked, but instead we use here the standard check of SyncBB to maintain the flow of the algorithm
-			if (lb < ub) {
-				broadcast("NEW_OPTIMUM_FOUND", lb);
-				handleNEWOPTIMUMFOUND(lb);
-			}
-			assignCPA();
+			compareCPACostToUpperBound(lb, less -> {
+				if (less) {
+					// In the secure modes the agents do not learn the cost of the new solution, and ub is not used
+					broadcast("NEW_OPTIMUM_FOUND", (comparison == null) ? lb : 0);
+					handleNEWOPTIMUMFOUND((comparison == null) ? lb : 0);
+				}
+				assignCPA();
+			});
 		}
 		else {
 			// lines 7-8 in sub-protocol update_shares_in_CPA - more efficient version in which the old encryptions are shuffled
 			int val = cpa.getAssignment(getId());
-			// In reality I also need to shuffle the ZEROs, but I only move the ONE here
-			BigInteger temp = vectorZ[oldVal];
-			vectorZ[oldVal] = vectorZ[val];
-			vectorZ[val] = temp;
+			// The ONE is moved to the new value, and the whole vector is rerandomized so that the ciphertexts cannot be linked to the old ones
+			// The rerandomization runs in the background until the vector is requested (see currentVectorZ)
+			// The vector is copied, since the successors may still hold the old one
+			BigInteger[] z = currentVectorZ().clone();
+			BigInteger temp = z[oldVal];
+			z[oldVal] = z[val];
+			z[val] = temp;
+			if (deltaVectorZ) {
+				// Only the moved ciphertexts and the decoys are rerandomized (see handleREQUESTVECTORZ)
+				deltaIndices = deltaPositions(oldVal, val, z.length);
+				BigInteger[] changed = new BigInteger[deltaIndices.length];
+				for (int i=0; i<changed.length; i++)
+					changed[i] = z[deltaIndices[i]];
+				changed = paillier.rerandomizeAll(changed);
+				for (int i=0; i<changed.length; i++)
+					z[deltaIndices[i]] = changed[i];
+				vectorZ = z;
+			}
+			else
+				pendingVectorZ = crypto.rerandomizeAll(paillier, z);
+			vectorZVersion++;
 
 			oldVal = val;
 			
 			counter2++;
-			// Run compare_CPA_cost_to_upper_bound();
-			// The answer of compare_CPA_cost_to_upper_bound() should be checked, but instead we use here the standard check of SyncBB to maintain the flow of the algorithm
-			if (lb >= ub) {
-				prune_counter++;
-				assignCPA();
-			}
-			else
-				send("CPA", cpa).toNextAgent();
+			compareCPACostToUpperBound(lb, less -> {
+				if (!less) {
+					prune_counter++;
+					assignCPA();
+				}
+				else
+					send("CPA", cpa).toNextAgent();
+			});
 		}
 	}
 	
+	/**
+	 * Runs compare_CPA_cost_to_upper_bound(). With forward bounding, the cost of the CPA includes forwardBound, so the
+	 * comparison waits for its secure summation.
+	 * @param lb the cost of the CPA (used only in the EMULATED mode)
+	 * @param next gets true if the cost of the CPA is less than the upper bound
+	 */
+	private void compareCPACostToUpperBound(final int lb, final Consumer<Boolean> next) {
+		whenForwardBoundArrives(() -> {
+			if (comparison == null) {
+				// The answer of compare_CPA_cost_to_upper_bound() is emulated by the standard check of SyncBB to maintain the flow of the algorithm
+				next.accept(lb + forwardBound < ub);
+			}
+			else {
+				// The secret of the comparison is the upper bound minus the cost of the CPA (see comparisonParty)
+				whenAggregatorKeysArrive(() -> comparison.compare(next));
+			}
+		});
+	}
+	
+	/**
+	 * Runs the action now if forwardBound is known, or after its secure summation.
+	 */
+	private void whenForwardBoundArrives(Runnable action) {
+		if (waitingForBound == null)
+			action.run();
+		else
+			waitingForBound.add(action);
+	}
+	
 	private void backtrack() {
 		if (isFirstAgent()) {
 			broadcast("COMPLETE");
@@ -202,6 +386,8 @@ public class PCSyncBBAgent extends SimpleAgent {
 			for (int t : getNeighbors()) {
 				if (t < getId()) {
 					shareCPA[t] = BigInteger.ZERO;
+					// The predecessor sends the whole vector Z in the next reply (see handleZEROSHARE)
+					heldVectorZ[t] = null;
 					send("ZERO_SHARE", getId()).to(t);
 				}
 			}
@@ -211,52 +397,193 @@ public class PCSyncBBAgent extends SimpleAgent {
 	}	
 	
 	@WhenReceived("PUBLIC_KEY")
-	public void handlePUBLICKEY(int sender, Paillier cryptoSystem){
-		cryptoSystems[sender] = cryptoSystem;
+	public void handlePUBLICKEY(int sender, PaillierPublicKey cryptoSystem){
+		cryptoSystems[sender] = cryptoSystem.withBackend(ciphertextBackend);
+		if (comparison != null && hasAggregatorKeys() && !waitingForKeys.isEmpty()) {
+			List<Runnable> ready = waitingForKeys;
+			waitingForKeys = new ArrayList<>();
+			for (Runnable action : ready)
+				action.run();
+		}
+	}
+
+	/**
+	 * The secure summation of forwardBound of the initiator: every later agent adds its minimal cost (see
+	 * CostBound.minimalCostWithPredecessors) to the masked sum and passes it to its previous agent, until it gets back to
+	 * the initiator, which removes its mask. Thus the initiator learns only the sum of the minimal costs of the later
+	 * agents (i.e., the agent before the last agent learns the minimal cost of the last agent), and the other agents see
+	 * only masked sums.
+	 */
+	@WhenReceived("FORWARD_BOUND")
+	public void handleFORWARDBOUND(int initiator, BigInteger maskedSum){
+		if (initiator == getId()) {
+			forwardBound = maskedSum.subtract(forwardBoundMask).longValue();
+			List<Runnable> ready = waitingForBound;
+			waitingForBound = null;
+			for (Runnable action : ready)
+				action.run();
+		}
+		else
+			send("FORWARD_BOUND", initiator, maskedSum.add(BigInteger.valueOf(CostBound.minimalCostWithPredecessors(getProblem(), getId())))).toPreviousAgent();
 	}
 
 	@WhenReceived("REQUEST_VECTOR_Z")
 	public void handleREQUESTVECTORZ(int sender){
-		send("REPLY_VECTOR_Z", getId(), vectorZ).to(sender);
+		BigInteger[] z = currentVectorZ();
+		if (deltaVectorZ && sentVersion[sender] >= vectorZVersion - 1 && (sentVersion[sender] == vectorZVersion || deltaIndices != null)) {
+			// The successor holds this version or the previous one, so it gets only the changed ciphertexts (none for this version)
+			int[] indices = (sentVersion[sender] == vectorZVersion) ? new int[0] : deltaIndices;
+			BigInteger[] changed = new BigInteger[indices.length];
+			for (int i=0; i<indices.length; i++)
+				changed[i] = z[indices[i]];
+			send("REPLY_VECTOR_Z_DELTA", getId(), vectorZVersion, indices, changed).to(sender);
+		}
+		else
+			send("REPLY_VECTOR_Z", getId(), vectorZVersion, z).to(sender);
+		sentVersion[sender] = vectorZVersion;
 	}
 	
 	@WhenReceived("REPLY_VECTOR_Z")
-	public void handleREPLYVECTORZ(int sender, BigInteger[] vectorZt){
-		vectorZCounter--;	
+	public void handleREPLYVECTORZ(int sender, int version, BigInteger[] vectorZt){
+		if (deltaVectorZ) {
+			heldVectorZ[sender] = vectorZt;
+			counter3 += vectorZt.length;
+		}
+		receivedVectorZ(sender, version, vectorZt);
+	}
+	
+	@WhenReceived("REPLY_VECTOR_Z_DELTA")
+	public void handleREPLYVECTORZDELTA(int sender, int version, int[] indices, BigInteger[] changed){
+		// The held vector is copied, since the cache of Y_t may keep the old version
+		BigInteger[] vectorZt = heldVectorZ[sender];
+		if (indices.length > 0) {
+			vectorZt = vectorZt.clone();
+			for (int i=0; i<indices.length; i++)
+				vectorZt[indices[i]] = changed[i];
+			heldVectorZ[sender] = vectorZt;
+		}
+		counter3 += changed.length;
+		receivedVectorZ(sender, version, vectorZt);
+	}
+	
+	private void receivedVectorZ(int sender, int version, BigInteger[] vectorZt){
+		vectorZCounter--;
+		if (parallelReplies) {
+			replies.put(sender, vectorZt);
+			replyVersions.put(sender, version);
+			if (vectorZCounter == 0) {
+				computeYtInParallel();
+				updateSharesInCPAFisinshed();
+			}
+			return;
+		}
 		BigInteger rho,yt;
-		Random rand = new Random();
 		rho = new BigInteger(S_DIGIT,rand);
-		yt = computeYt(vectorZt, sender);
+		yt = computeYt(sender, version, vectorZt, constraintCosts(sender, vectorZt.length), rho, crypto);
 		counter3++;
 		send("Y_SHARE", getId(), yt).to(sender);
-		shareCPA[sender] = rho;
+		// The cost of the constraint with the sender is shared as (-rho) + (cost + rho)
+		shareCPA[sender] = rho.negate();
 		if (vectorZCounter == 0)
 			updateSharesInCPAFisinshed();
 	}
 	
-	private BigInteger computeYt(BigInteger[] vectorZt, int agentT) {
-		// In the real computation it should also use rho and the values from the constraint matrix, but we use rand.nextInt(S_SIZE) to simulate the power size just to calculate the runtime 
-		Random rand = new Random();
-		BigInteger yt = BigInteger.ONE;
-    	for (int i=0; i<vectorZt.length; i++) {
-    		yt = yt.multiply(vectorZt[i].modPow(new BigInteger(Integer.toString(rand.nextInt(MAX_COST))), cryptoSystems[agentT].nsquare));
-    	}
-    	// Chose here vectorZt[0] but it should be the mult of all the vectorZt vals, but since it can be computed once for each agentT, I just use vectorZ[0]
-    	yt.multiply(vectorZt[0].modPow(new BigInteger(Integer.toString(rand.nextInt(S_SIZE))), cryptoSystems[agentT].nsquare));
-		return yt;
+	/**
+	 * Computes the Y_t of all the gathered replies at once, one per worker of the shared pool, and sends them after
+	 * all of them are computed. The fan-out and the join are in the same handler, so the NCR of the agent includes
+	 * the (concurrent) time of the computations, i.e., the time of the slowest Y_t instead of the sum of all of them.
+	 */
+	private void computeYtInParallel() {
+		PaillierCryptoService pool = PaillierCryptoService.shared();
+		Map<Integer, CompletableFuture<BigInteger>> yts = new LinkedHashMap<>();
+		for (Map.Entry<Integer, BigInteger[]> reply : replies.entrySet()) {
+			final int t = reply.getKey();
+			final BigInteger[] vectorZt = reply.getValue();
+			// The masks and the costs are drawn by the agent (in the order of the arrival of the replies, as in the serial mode)
+			final BigInteger rho = new BigInteger(S_DIGIT,rand);
+			final BigInteger[] costs = constraintCosts(t, vectorZt.length);
+			final int version = replyVersions.get(t);
+			// Every Y_t runs in a single task (a task of the pool must not wait for other tasks of the pool)
+			yts.put(t, pool.submit(ytTask(t, version, vectorZt, costs, rho, PaillierCryptoService.direct())));
+			shareCPA[t] = rho.negate();
+		}
+		replies.clear();
+		replyVersions.clear();
+		for (Map.Entry<Integer, CompletableFuture<BigInteger>> yt : yts.entrySet()) {
+			counter3++;
+			send("Y_SHARE", getId(), PaillierCryptoService.join(yt.getValue())).to(yt.getKey());
+		}
+	}
+	
+	/**
+	 * @return the costs C(x_t, x_k) of the constraint with agentT for all the values x_t of agentT, where x_k is the value of the agent
+	 */
+	private BigInteger[] constraintCosts(int agentT, int domainSize) {
+		int val = cpa.getAssignment(getId());
+		BigInteger[] costs = new BigInteger[domainSize];
+		for (int i=0; i<domainSize; i++)
+			costs[i] = BigInteger.valueOf(getProblem().getConstraintCost(agentT, i, getId(), val));
+		return costs;
+	}
+	
+	/**
+	 * @return Y_t = E_t(C(x_t, x_k) + rho), where x_k is the value of the agent and x_t is the value of agent t
+	 * (encrypted in vectorZt as an encryption of one at the index of x_t and encryptions of zero elsewhere)
+	 */
+	private BigInteger computeYt(int t, int version, BigInteger[] vectorZt, BigInteger[] costs, BigInteger rho, PaillierCryptoService service) {
+		return ytTask(t, version, vectorZt, costs, rho, service).get();
+	}
+	
+	/**
+	 * Looks up the cache in the agent thread, and returns the computation of Y_t (which may run in another thread).
+	 * A hit is a vector Z of the same predecessor with the same version, i.e., with the same ciphertexts; only the
+	 * last version of every predecessor is kept, since the older ones never arrive again.
+	 */
+	private Supplier<BigInteger> ytTask(int t, int version, final BigInteger[] vectorZt, final BigInteger[] costs, final BigInteger rho, final PaillierCryptoService service) {
+		final PaillierPublicKey publicKey = cryptoSystems[t];
+		if (ytCacheSize <= 0)
+			return () -> computeYt(publicKey, vectorZt, costs, rho, service);
+		CachedVectorZ cached = ytCache.get(t);
+		if (cached != null && cached.version == version && cached.powers.getLength() == vectorZt.length)
+			ytCacheHits++;
+		else {
+			ytCacheMisses++;
+			cached = new CachedVectorZ(version, new PrecomputedDotProduct(publicKey, vectorZt,
+					BigInteger.valueOf(MAX_COST).bitLength(), S_DIGIT));
+			ytCache.put(t, cached);
+		}
+		final PrecomputedDotProduct powers = cached.powers;
+		return () -> powers.dotProduct(costs, rho);
+	}
+	
+	/**
+	 * @return Y_t = E_t(C(x_t, x_k) + rho), without the cache
+	 */
+	private static BigInteger computeYt(PaillierPublicKey publicKey, BigInteger[] vectorZt, BigInteger[] costs, BigInteger rho, PaillierCryptoService service) {
+    	// The dot product is computed by the crypto service, while the agent computes the mult of all the vectorZt vals (an encryption of one) raised to the power of rho
+    	CompletableFuture<BigInteger> dot = service.dotProduct(publicKey, vectorZt, costs);
+    	BigInteger power = publicKey.multiply(publicKey.product(vectorZt), rho);
+		return publicKey.add(PaillierCryptoService.join(dot), power);
 	}
 	
 	@WhenReceived("Y_SHARE")
 	public void handleYSHARE(int sender, BigInteger yt){
-		shareCPA[sender] = paillier.Decryption(yt);
+		// The share is decrypted in the background until it is needed (see getShare)
+		pendingShares.put(sender, crypto.decrypt(paillier, yt));
 	}	
 
+	@WhenReceived("COMPARE")
+	public void handleCOMPARE(final int sender, final int compareId, final int step, final BigInteger[] payload){
+		whenAggregatorKeysArrive(() -> comparison.handle(sender, compareId, step, payload));
+	}
+
 	@WhenReceived("NEW_OPTIMUM_FOUND")
 	public void handleNEWOPTIMUMFOUND(int newUb){
 		ub = newUb;  // The upper bound update is not part of the algorithm (it is actually from SyncBB in order to maintain the flow of the algorithm)		
-		shareUpperBound = BigInteger.ZERO;
+		// The shares of the cost of the CPA become the shares of the new upper bound, and every agent adds its own unary cost
+		shareUpperBound = BigInteger.valueOf(unaryCost());
 		for (int t : getNeighbors())
-			shareUpperBound.add(shareCPA[t]);
+			shareUpperBound = shareUpperBound.add(getShare(t));
 		optimalSetting = currentDomain.get(pk);
 	}
 		
@@ -269,6 +596,8 @@ public class PCSyncBBAgent extends SimpleAgent {
 	
 	@WhenReceived("ZERO_SHARE")
 	public void handleZEROSHARE(int senderId){
+		sentVersion[senderId] = -1;
+		pendingShares.remove(senderId);
 		shareCPA[senderId] = BigInteger.ZERO;
 	}	
 
@@ -292,4 +621,206 @@ public class PCSyncBBAgent extends SimpleAgent {
 			finish(cpa);
 	}
 	
-}
\ No newline at end of file
+	/**
+	 * @return true if the agent has the public keys of all the aggregators of the secure comparisons
+	 */
+	private boolean hasAggregatorKeys() {
+		for (int initiator : new int[] {0, getId()}) {
+			int aggregator = SecureComparison.getAggregator(initiator);
+			if (aggregator != getId() && cryptoSystems[aggregator] == null)
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Runs a step of a comparison now, or when the public keys of the aggregators arrive (e.g., the first agent may
+	 * start a comparison before it gets the key of its aggregator). The waiting steps run in the order of their arrival.
+	 */
+	private void whenAggregatorKeysArrive(Runnable action) {
+		if (hasAggregatorKeys() && waitingForKeys.isEmpty())
+			action.run();
+		else
+			waitingForKeys.add(action);
+	}
+	
+	/**
+	 * @return the agent side of the secure comparisons: the secret is the upper bound minus the cost of the CPA of the
+	 * initiator, i.e., the share of the agent is its share of the upper bound minus its shares of the constraints in the
+	 * CPA and its own unary cost (which the agent knows in the clear, so it needs no shares). The CPA of the initiator k
+	 * consists of the agents 0, ..., k, so only the shares of the constraints between them and their unary costs count
+	 * (the shares of the other constraints may be stale). Thus the secret counts the same costs as cpa.calcCost of the
+	 * EMULATED mode. With forward bounding, the share of the initiator also subtracts its forwardBound.
+	 */
+	private SecureComparison.Party comparisonParty() {
+		return new SecureComparison.Party() {
+			@Override
+			public int getId() {
+				return PCSyncBBAgent.this.getId();
+			}
+			
+			@Override
+			public int getNumberOfParties() {
+				return getNumberOfVariables();
+			}
+			
+			@Override
+			public BigInteger getShare(int initiator) {
+				BigInteger share = shareUpperBound;
+				// The initiator adds its forwardBound to the cost of the CPA
+				if (getId() == initiator)
+					share = share.subtract(BigInteger.valueOf(forwardBound));
+				if (getId() <= initiator) {
+					share = share.subtract(BigInteger.valueOf(unaryCost()));
+					for (int t : getNeighbors())
+						if (t <= initiator)
+							share = share.subtract(PCSyncBBAgent.this.getShare(t));
+				}
+				return share;
+			}
+			
+			@Override
+			public PaillierPublicKey getPublicKey(int agent) {
+				return (agent == getId()) ? paillier.getPublicKey() : cryptoSystems[agent];
+			}
+			
+			@Override
+			public Paillier getCryptoSystem() {
+				return paillier;
+			}
+			
+			@Override
+			public Random getRandom() {
+				return rand;
+			}
+			
+			@Override
+			public void send(int recipient, int compareId, int step, BigInteger[] payload) {
+				PCSyncBBAgent.this.send("COMPARE", getId(), compareId, step, payload).to(recipient);
+			}
+		};
+	}
+	
+	/**
+	 * @return the positions of the delta of a new version of vectorZ in increasing order (so that the order does not
+	 * tell the moved positions from the decoys): the old and the new values and deltaDecoys other random positions
+	 */
+	private int[] deltaPositions(int oldVal, int val, int size) {
+		TreeSet<Integer> positions = new TreeSet<>();
+		positions.add(oldVal);
+		positions.add(val);
+		int target = Math.min(size, positions.size() + Math.max(0, deltaDecoys));
+		while (positions.size() < target)
+			positions.add(rand.nextInt(size));
+		int[] indices = new int[positions.size()];
+		int i = 0;
+		for (int position : positions)
+			indices[i++] = position;
+		return indices;
+	}
+	
+	/**
+	 * @return the vector Z, after waiting for its rerandomization if it is still computed
+	 */
+	private BigInteger[] currentVectorZ() {
+		if (pendingVectorZ != null) {
+			vectorZ = PaillierCryptoService.join(pendingVectorZ);
+			pendingVectorZ = null;
+		}
+		return vectorZ;
+	}
+	
+	/**
+	 * @param t a neighbor
+	 * @return the share of the agent in the cost of its constraint with t, after waiting for its decryption if it is still computed
+	 */
+	private BigInteger getShare(int t) {
+		CompletableFuture<BigInteger> pending = pendingShares.remove(t);
+		if (pending != null)
+			shareCPA[t] = PaillierCryptoService.join(pending);
+		return shareCPA[t];
+	}
+	
+	/**
+	 * @return the unary cost of the current value of the agent in its CPA
+	 */
+	private int unaryCost() {
+		return getProblem().getConstraintCost(getId(), cpa.getAssignment(getId()));
+	}
+	
+	/**
+	 * @return the alg-seed that the problem generator put in the metadata (see AbstractSeedableProbGen), or 0 if there is none
+	 */
+	private long getAlgSeed() {
+		Object algSeed = getProblem().getMetadata().get("alg-seed");
+		return (algSeed instanceof Long) ? (Long) algSeed : 0;
+	}
+	
+	/**
+	 * Creates the agent's cryptosystem, either by generating fresh keys or by taking the agent's key from the key pool
+	 * (deterministically by the run's "alg-seed" and the agent's id).
+	 */
+	private Paillier createPaillier() {
+		if (keyPool.isEmpty())
+			return new Paillier(modulusBits, 64, simpleGenerator, randomness.newStream(), sievePrimes);
+		try {
+			PaillierKeyPool pool = PaillierKeyPool.open(keyPool);
+			if (pool.getBitLength() != modulusBits)
+				throw new IllegalStateException("The key pool " + keyPool + " has " + pool.getBitLength() + "-bit keys but modulus-bits is " + modulusBits);
+			Paillier pooled = pool.get(getAlgSeed(), getId(), simpleGenerator);
+			pooled.setRandom(randomness.newStream());
+			return pooled;
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot read the key pool " + keyPool, e);
+		}
+	}
+	
+	/**
+	 * @return the agent's pool of precomputed randomizers, or null if the pool is not used
+	 */
+	public PaillierRandomizerPool getRandomizerPool() {
+		return randomizerPool;
+	}
+	
+	/**
+	 * @return the agent's secure comparison protocol, or null in the EMULATED mode
+	 */
+	public SecureComparison getComparison() {
+		return comparison;
+	}
+	
+	/**
+	 * @return the number of bits of the Paillier modulus of the agent
+	 */
+	public int getModulusBits() {
+		return modulusBits;
+	}
+	
+	/**
+	 * @return the number of Y_t that were computed from the precomputed powers of a cached vector Z
+	 */
+	public int getYtCacheHits() {
+		return ytCacheHits;
+	}
+	
+	/**
+	 * @return the number of Y_t that were computed with the cache enabled but not found in it
+	 */
+	public int getYtCacheMisses() {
+		return ytCacheMisses;
+	}
+	
+	/**
+	 * The precomputed powers of a vector Z of a predecessor neighbor, with the version of the vector.
+	 */
+	private static class CachedVectorZ {
+		final int version;
+		final PrecomputedDotProduct powers;
+		
+		CachedVectorZ(int version, PrecomputedDotProduct powers) {
+			this.version = version;
+			this.powers = powers;
+		}
+	}
+
+}
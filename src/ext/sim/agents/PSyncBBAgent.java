@@ -1,11 +1,20 @@
 package ext.sim.agents;
 
+import java.io.IOException;
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Random;
 import java.util.Set;
 
+import ext.sim.tools.CostBound;
+import ext.sim.tools.privacy.CiphertextOps;
 import ext.sim.tools.privacy.Paillier;
+import ext.sim.tools.privacy.PaillierKeyPool;
+import ext.sim.tools.privacy.PaillierPublicKey;
+import ext.sim.tools.privacy.PaillierRandomizerPool;
+import ext.sim.tools.privacy.RandomnessProvider;
 import bgu.dcr.az.api.agt.*;
 import bgu.dcr.az.api.ano.*;
 import bgu.dcr.az.api.tools.*;
@@ -18,6 +27,10 @@ import bgu.dcr.az.api.ano.WhenReceived;
  * All cryptographic operations are performed in order to faithfully assess the run-time and network load, but
  * the algorithm's flow is maintained by SyncBB (which is perfectly emulated by P-SyncBB in the first place).
  * 
+ * With forward-bounding = true, the bound check of Protocol4 adds to the cost of the CPA the sum of the minimal costs of
+ * the later agents with their predecessors (forwardBound), which every agent that runs Protocol4 gets once, by a secure
+ * summation at start-up over the later agents (see handleFORWARDBOUND).
+ * 
  * The counter variables are used for computing the network load (there is no such statistic available in AgentZero).
  * 
  * @author Tal Grinshpoun
@@ -42,7 +55,7 @@ public class PSyncBBAgent extends SimpleAgent {
 	private boolean currentlyBest; // A Boolean variable used by the first agent to determine whether the new solution is the best found so far (only used in the DecisionPrivacy version)
 	private Paillier paillier; // A Paillier cryptosystem used by the agent (only used in the DecisionPrivacy version)
 	private BigInteger[] bestSolutionPrivate; // Array of encrypted best values (only used in the DecisionPrivacy version)
-	private Paillier[] cryptoSystems; // Array of cryptosystems held by the first agent as a substitute for public keys (only used in the DecisionPrivacy version) 
+	private PaillierPublicKey[] cryptoSystems; // Array of public keys held by the first agent (only used in the DecisionPrivacy version) 
 	private Integer tempVal;
 	private int agentNum;
 	private BigInteger tempCalc;
@@ -53,19 +66,72 @@ public class PSyncBBAgent extends SimpleAgent {
 	//public int counter2 = 0; // This counter is not used in P-SyncBB
 	public int counter3 = 0; // Counting the number of encrypted messages
 	
+	@Variable(name="simple-generator", description="use g=n+1 in Paillier (false reproduces the published g=2 results)", defaultValue="true")
+	boolean simpleGenerator = true;
+	
+	@Variable(name="modulus-bits", description="number of bits of the Paillier modulus (e.g., 1024, 2048 or 3072 instead of the published 512)", defaultValue="512")
+	int modulusBits = 512;
+	
+	@Variable(name="key-pool", description="file of pregenerated Paillier keys (empty for generating fresh keys)", defaultValue="")
+	String keyPool = "";
+	
+	@Variable(name="sieve-primes", description="generate the primes of fresh keys with SievePrimeGenerator instead of the BigInteger constructor (not faster on a single core, see Paillier.testPrimeGeneration)", defaultValue="false")
+	boolean sievePrimes = false;
+	
+	@Variable(name="ciphertext-ops", description="arithmetic of the ciphertext operations: BIGINTEGER or MONTGOMERY (fewer allocations for multiplications and short powers; dot products as BIGINTEGER)", defaultValue="BIGINTEGER")
+	String ciphertextOps = "BIGINTEGER";
+	private CiphertextOps.Backend ciphertextBackend;
+	
+	@Variable(name="randomizer-mode", description="computation of Paillier randomizers: STANDARD or FIXED_BASE (about 1.1-1.2x faster measured, but short exponents: the randomizers are not uniform over the n-th residues, see FixedBaseRandomizer)", defaultValue="STANDARD")
+	String randomizerMode = "STANDARD";
+	
+	@Variable(name="randomizer-pool", description="precompute Paillier randomizers in a background pool", defaultValue="false")
+	boolean useRandomizerPool = false;
+	private PaillierRandomizerPool randomizerPool = null;
+	
+	@Variable(name="secure-random", description="draw keys, masks and exponents from a SecureRandom instead of streams seeded by alg-seed", defaultValue="false")
+	boolean secureRandom = false;
+	private RandomnessProvider randomness; // The source of all the random numbers of the agent
+	private Random rand; // The stream of the masks and exponents
+	
+	@Variable(name="forward-bounding", description="add to the cost of the CPA in Protocol4 a lower bound on the costs of the later agents with their predecessors, which every agent gets by a secure summation at start-up", defaultValue="false")
+	boolean forwardBounding = false;
+	private double forwardBound; // The sum of the minimal costs of the later agents (0 without forward bounding)
+	private BigInteger forwardBoundMask; // The mask of the secure summation of forwardBound
+	private List<Runnable> waitingForBound; // Bound checks that wait for forwardBound (null once it is known)
+	
 	
     @Override
     public void start() {
     	
     	randCounter = 0;
     	protocol4Counter = 0;
-    	paillier = new Paillier();
+    	randomness = RandomnessProvider.forAgent(getAlgSeed(), getId(), secureRandom ? RandomnessProvider.Mode.SECURE : RandomnessProvider.Mode.SPLITTABLE);
+    	rand = randomness.newStream();
+    	paillier = createPaillier();
+    	ciphertextBackend = CiphertextOps.Backend.valueOf(ciphertextOps.toUpperCase());
+    	paillier.setCiphertextBackend(ciphertextBackend);
+    	paillier.setRandomizerMode(Paillier.RandomizerMode.valueOf(randomizerMode.toUpperCase()));
+    	if (useRandomizerPool) {
+    		randomizerPool = new PaillierRandomizerPool(paillier);
+    		paillier.setRandomizer(randomizerPool);
+    	}
+    	
+    	// Only the agents that run Protocol4 need forwardBound (see handleFORWARDBOUND)
+    	forwardBound = 0;
+    	waitingForBound = null;
+    	if (forwardBounding && getId() > 2 && !isLastAgent()) {
+    		waitingForBound = new ArrayList<>();
+    		forwardBoundMask = new BigInteger(S_SIZE, rand);
+    		counter3++;
+    		send("FORWARD_BOUND", getId(), forwardBoundMask).toLastAgent();
+    	}
     	
         if (isFirstAgent()) {	
         	
         	bestSolutionPrivate = new BigInteger[getNumberOfVariables()];
-        	cryptoSystems = new Paillier[getNumberOfVariables()];
-        	cryptoSystems[0] = paillier;
+        	cryptoSystems = new PaillierPublicKey[getNumberOfVariables()];
+        	cryptoSystems[0] = paillier.getPublicKey();
         	ub = Double.MAX_VALUE;
         	cpa = new Assignment();
         	currentDomain = new HashSet<>(getDomainOf(getId()));
@@ -76,7 +142,7 @@ public class PSyncBBAgent extends SimpleAgent {
         }
         else {
         	counter1++;
-        	send("PUBLIC_KEY", getId(), paillier).toFirstAgent();
+        	send("PUBLIC_KEY", getId(), paillier.getPublicKey()).toFirstAgent();
         }
         if (isLastAgent()) {
         	bestSolution = new Assignment();
@@ -122,7 +188,7 @@ public class PSyncBBAgent extends SimpleAgent {
 	void assignCPAafterSum() {
 		// May add another condition to apply a heuristic regarding when to perform the bound check
 		if (computedCPA == true && (getId() > 2)) {
-			initiateProtocol4();
+			whenForwardBoundArrives(() -> initiateProtocol4());
 		}
 		else
 			assignCPAafterBoundCheck();
@@ -138,8 +204,9 @@ public class PSyncBBAgent extends SimpleAgent {
 
 	private void backtrack() {
 		if (isFirstAgent()) {
+			BigInteger[] rerandomized = PaillierPublicKey.rerandomizeAll(cryptoSystems, bestSolutionPrivate, rand);
 			for (int i=0; i<getNumberOfVariables(); i++) {
-				BigInteger bi = bestSolutionPrivate[i].multiply(cryptoSystems[i].Encryption(new BigInteger("0")));
+				BigInteger bi = rerandomized[i];
 				counter3++;
 				send("ASSIGNMENT_IN_SOLUTION", bi).to(i);
 			}
@@ -152,8 +219,8 @@ public class PSyncBBAgent extends SimpleAgent {
 
 
 	@WhenReceived("PUBLIC_KEY")
-	public void handlePUBLICKEY(int sender, Paillier cryptoSystem){
-		cryptoSystems[sender] = cryptoSystem;
+	public void handlePUBLICKEY(int sender, PaillierPublicKey cryptoSystem){
+		cryptoSystems[sender] = cryptoSystem.withBackend(ciphertextBackend);
 	}
 	
 	@WhenReceived("CPA")
@@ -213,7 +280,7 @@ public class PSyncBBAgent extends SimpleAgent {
 	
 	@WhenReceived("ASSIGNMENT_IN_SOLUTION")
 	public void handleASSIGNMENTINSOLUTION(BigInteger encryptedVal){
-		int val = paillier.Decryption(encryptedVal).intValue();
+		int val = paillier.DecryptionCRT(encryptedVal).intValue();
 		send("TERMINATE", getId(), val).toLastAgent();
 	}
 	
@@ -231,7 +298,6 @@ public class PSyncBBAgent extends SimpleAgent {
 	@WhenReceived("PROTOCOL2")
 	public void handlePROTOCOL2(int sumId){
 		tempCalc = new BigInteger("0");
-		Random rand = new Random();
 		for (int i=1; i<getNumberOfVariables(); i++) {
 			if (i != getId()) {
 				counter3++;
@@ -288,7 +354,6 @@ public class PSyncBBAgent extends SimpleAgent {
 	public void handlePROTOCOL3(){
 		int senderId = getCurrentMessage().getSender(); 
 		tempCalc = new BigInteger("0");
-		Random rand = new Random();
 		for (int i=1; i<senderId; i++) {
 			if (i != getId()) {
 				counter3++;
@@ -322,11 +387,40 @@ public class PSyncBBAgent extends SimpleAgent {
 	}
 
 	public void initiateProtocol4() {
-		Random rand = new Random();
 		counter3++;
 		send("PROTOCOL4_INIT", new BigInteger(S_SIZE,rand)).toFirstAgent(); // Sending dummy value to agent A1 (step 3)
 		new BigInteger(S_SIZE,rand); // Dummy random generation of steps 5 and 6
-		send("PROTOCOL4_FROM_AK", CPACost + cpa.calcAddedCost(getId(), tempVal, getProblem())).to(1);
+		send("PROTOCOL4_FROM_AK", CPACost + cpa.calcAddedCost(getId(), tempVal, getProblem()) + forwardBound).to(1);
+	}
+	
+	/**
+	 * Runs the action now if forwardBound is known, or after its secure summation.
+	 */
+	private void whenForwardBoundArrives(Runnable action) {
+		if (waitingForBound == null)
+			action.run();
+		else
+			waitingForBound.add(action);
+	}
+	
+	/**
+	 * The secure summation of forwardBound of the initiator: every later agent adds its minimal cost (see
+	 * CostBound.minimalCostWithPredecessors) to the masked sum and passes it to its previous agent, until it gets back to
+	 * the initiator, which removes its mask. Thus the initiator learns only the sum of the minimal costs of the later agents.
+	 */
+	@WhenReceived("FORWARD_BOUND")
+	public void handleFORWARDBOUND(int initiator, BigInteger maskedSum){
+		if (initiator == getId()) {
+			forwardBound = maskedSum.subtract(forwardBoundMask).doubleValue();
+			List<Runnable> ready = waitingForBound;
+			waitingForBound = null;
+			for (Runnable action : ready)
+				action.run();
+		}
+		else {
+			counter3++;
+			send("FORWARD_BOUND", initiator, maskedSum.add(BigInteger.valueOf(CostBound.minimalCostWithPredecessors(getProblem(), getId())))).toPreviousAgent();
+		}
 	}
 	
 	@WhenReceived("PROTOCOL4_INIT")
@@ -370,5 +464,46 @@ public class PSyncBBAgent extends SimpleAgent {
 		else
 			assignCPAafterBoundCheck();
 	}
+	
+	/**
+	 * @return the alg-seed that the problem generator put in the metadata (see AbstractSeedableProbGen), or 0 if there is none
+	 */
+	private long getAlgSeed() {
+		Object algSeed = getProblem().getMetadata().get("alg-seed");
+		return (algSeed instanceof Long) ? (Long) algSeed : 0;
+	}
+	
+	/**
+	 * Creates the agent's cryptosystem, either by generating fresh keys or by taking the agent's key from the key pool
+	 * (deterministically by the run's "alg-seed" and the agent's id).
+	 */
+	private Paillier createPaillier() {
+		if (keyPool.isEmpty())
+			return new Paillier(modulusBits, 64, simpleGenerator, randomness.newStream(), sievePrimes);
+		try {
+			PaillierKeyPool pool = PaillierKeyPool.open(keyPool);
+			if (pool.getBitLength() != modulusBits)
+				throw new IllegalStateException("The key pool " + keyPool + " has " + pool.getBitLength() + "-bit keys but modulus-bits is " + modulusBits);
+			Paillier pooled = pool.get(getAlgSeed(), getId(), simpleGenerator);
+			pooled.setRandom(randomness.newStream());
+			return pooled;
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot read the key pool " + keyPool, e);
+		}
+	}
+	
+	/**
+	 * @return the agent's pool of precomputed randomizers, or null if the pool is not used
+	 */
+	public PaillierRandomizerPool getRandomizerPool() {
+		return randomizerPool;
+	}
+	
+	/**
+	 * @return the number of bits of the Paillier modulus of the agent
+	 */
+	public int getModulusBits() {
+		return modulusBits;
+	}
 
 }
@@ -0,0 +1,114 @@
+package ext.sim.modules;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import bgu.dcr.az.api.Agent;
+import bgu.dcr.az.api.Hooks;
+import bgu.dcr.az.api.ano.Register;
+import bgu.dcr.az.api.exen.Execution;
+import bgu.dcr.az.api.exen.Test;
+import bgu.dcr.az.api.exen.stat.DBRecord;
+import bgu.dcr.az.api.exen.stat.Database;
+import bgu.dcr.az.api.exen.stat.VisualModel;
+import bgu.dcr.az.api.exen.stat.vmod.LineVisualModel;
+import bgu.dcr.az.exen.stat.AbstractStatisticCollector;
+import bgu.dcr.az.exen.stat.NCCCStatisticCollector;
+import ext.sim.agents.PCSyncBBAgent;
+import ext.sim.tools.privacy.DgkComparison;
+
+/**
+ * This class collects the statistics of the pools of precomputed encrypted bits of the aggregators of the DGK
+ * comparisons of PC-SyncBB (compare-protocol = DGK): the number of background refills and the time spent on them
+ * (which is not part of the NCR, see DgkComparison), so that the NCR of the comparison protocols can be compared
+ * together with the work that DGK moves to the background.
+ *
+ * @author Tal Grinshpoun
+ */
+@Register(name = "cpool-sc")
+public class ComparisonPoolStats extends AbstractStatisticCollector<ComparisonPoolStats.CPoolRecord> {
+
+	private String runningVar;
+
+	@Override
+	public VisualModel analyze(Database db, Test r) {
+		String query = "select AVG(refillNanos) as avg, rVar, ALGORITHM_INSTANCE from CPOOL where TEST = '" + r.getName()
+				+ "' group by ALGORITHM_INSTANCE, rVar order by rVar";
+		LineVisualModel line = new LineVisualModel(runningVar, "Avg(Refill Nanos)", "CPOOL");
+		try {
+			ResultSet rs = db.query(query);
+			while (rs.next()) {
+				line.setPoint(rs.getString("ALGORITHM_INSTANCE"), rs.getFloat("rVar"), rs.getFloat("avg"));
+			}
+			return line;
+		} catch (SQLException ex) {
+			Logger.getLogger(NCCCStatisticCollector.class.getName()).log(Level.SEVERE, null, ex);
+		}
+
+		return null;
+	}
+
+	@Override
+	public void hookIn(final Agent[] agents, final Execution ex) {
+		System.out.println("CPOOL Statistic Collector registered");
+
+		runningVar = ex.getTest().getRunningVarName();
+
+		new Hooks.TerminationHook() {
+			@Override
+			public void hook() {
+				double refills = 0, refillNanos = 0;
+				boolean found = false;
+				for (Agent agent : agents) {
+					if (agent instanceof PCSyncBBAgent && ((PCSyncBBAgent)agent).getComparison() instanceof DgkComparison) {
+						DgkComparison comparison = (DgkComparison) ((PCSyncBBAgent)agent).getComparison();
+						found = true;
+						refills += comparison.getRefills();
+						refillNanos += comparison.getRefillNanos();
+					}
+				}
+
+				if (found) {
+					CPoolRecord r = new CPoolRecord(ex.getTest().getCurrentExecutedAlgorithmInstanceName(),
+							ex.getTest().getCurrentVarValue(), refills, refillNanos);
+					submit(r);
+					System.out.println(r);
+				}
+			}
+		}.hookInto(ex);
+
+	}
+
+	@Override
+	public String getName() {
+		return "Comparison Pool Statistics";
+	}
+
+	public static class CPoolRecord extends DBRecord {
+
+		String name;
+		double rVar;
+		double refills;
+		double refillNanos;
+
+		public CPoolRecord(String name, double rVar, double refills, double refillNanos) {
+			this.name = name;
+			this.rVar = rVar;
+			this.refills = refills;
+			this.refillNanos = refillNanos;
+		}
+
+		@Override
+		public String provideTableName() {
+			return "CPOOL";
+		}
+
+		@Override
+		public String toString() {
+			return "CPOOLRecord [name=" + name + ", rVar=" + rVar + ", refills=" + refills + ", refillNanos=" + refillNanos + "]";
+		}
+
+	}
+}
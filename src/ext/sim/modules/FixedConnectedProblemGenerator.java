@@ -6,6 +6,7 @@ import bgu.dcr.az.api.prob.Problem;
 import bgu.dcr.az.api.ano.Register;
 import bgu.dcr.az.api.ano.Variable;
 import bgu.dcr.az.exen.pgen.UnstructuredDCOPGen;
+import ext.sim.tools.CostBound;
 
 @Register(name = "dcop-connected-f")
 public class FixedConnectedProblemGenerator extends UnstructuredDCOPGen {
@@ -35,6 +36,7 @@ public class FixedConnectedProblemGenerator extends UnstructuredDCOPGen {
             if (allTrue(connections)) {
                 p.getMetadata().put("max-cost", maxCost);
                 p.getMetadata().put("p1", p1);
+                CostBound.publish(p);
                 return;
             }
 
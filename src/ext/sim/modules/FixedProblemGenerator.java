@@ -9,6 +9,7 @@ import bgu.dcr.az.api.ds.ImmutableSet;
 import bgu.dcr.az.api.prob.Problem;
 import bgu.dcr.az.api.prob.ProblemType;
 import bgu.dcr.az.exen.pgen.UnstructuredDCOPGen;
+import ext.sim.tools.CostBound;
 
 @Register(name = "dcop-unstructured-f")
 public class FixedProblemGenerator extends UnstructuredDCOPGen{
@@ -43,6 +44,7 @@ public class FixedProblemGenerator extends UnstructuredDCOPGen{
         
         p.getMetadata().put("max-cost", maxCost);
         p.getMetadata().put("p1", p1);
+        CostBound.publish(p);
     }
 
     @Override
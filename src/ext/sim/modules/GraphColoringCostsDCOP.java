@@ -6,6 +6,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 
+import ext.sim.tools.CostBound;
 import ext.sim.tools.graph.Graph;
 import ext.sim.tools.graph.Vertex;
 import ext.sim.tools.graph.gen.RandomGraphGenerator;
@@ -64,6 +65,7 @@ public class GraphColoringCostsDCOP extends AbstractProblemGenerator {
 				}
 			}
 		}
+		CostBound.publish(p);
 
 	}
 	
@@ -7,6 +7,7 @@ import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 
+import ext.sim.tools.CostBound;
 import ext.sim.tools.graph.Graph;
 import ext.sim.tools.graph.Vertex;
 import ext.sim.tools.graph.gen.RandomGraphGenerator;
@@ -82,6 +83,7 @@ public class GraphColoringDCOP extends AbstractProblemGenerator {
 				}
 			}
 		}
+		CostBound.publish(p);
 
 	}
 
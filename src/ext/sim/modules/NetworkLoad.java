@@ -0,0 +1,132 @@
+package ext.sim.modules;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import bgu.dcr.az.api.Agent;
+import bgu.dcr.az.api.Hooks;
+import bgu.dcr.az.api.Message;
+import bgu.dcr.az.api.ano.Register;
+import bgu.dcr.az.api.exen.Execution;
+import bgu.dcr.az.api.exen.Test;
+import bgu.dcr.az.api.exen.stat.DBRecord;
+import bgu.dcr.az.api.exen.stat.Database;
+import bgu.dcr.az.api.exen.stat.VisualModel;
+import bgu.dcr.az.api.exen.stat.vmod.LineVisualModel;
+import bgu.dcr.az.exen.stat.AbstractStatisticCollector;
+import bgu.dcr.az.exen.stat.NCCCStatisticCollector;
+import ext.sim.agents.PCSyncBBAgent;
+import ext.sim.agents.PSyncBBAgent;
+import ext.sim.tools.privacy.MessageSizeEstimator;
+
+/**
+ * This class collects the network load of an execution: the total number of bytes of the messages that the agents
+ * send, as estimated by MessageSizeEstimator from the encodings of their actual arguments (see the README for the
+ * computation from MSG and the counters that it replaces).
+ * The ciphertexts are sized by the modulus-bits of the agents (512 for the agents without a cryptosystem).
+ *
+ * @author Tal Grinshpoun
+ */
+@Register(name = "net-sc")
+public class NetworkLoad extends AbstractStatisticCollector<NetworkLoad.NetworkLoadRecord> {
+
+	private String runningVar;
+	private MessageSizeEstimator estimator;
+	private long bytes;
+	private long messages;
+
+	@Override
+	public VisualModel analyze(Database db, Test r) {
+		String query = "select AVG(bytes) as avg, rVar, ALGORITHM_INSTANCE from NETLOAD where TEST = '" + r.getName()
+				+ "' group by ALGORITHM_INSTANCE, rVar order by rVar";
+		LineVisualModel line = new LineVisualModel(runningVar, "Avg(Bytes)", "NETLOAD");
+		try {
+			ResultSet rs = db.query(query);
+			while (rs.next()) {
+				line.setPoint(rs.getString("ALGORITHM_INSTANCE"), rs.getFloat("rVar"), rs.getFloat("avg"));
+			}
+			return line;
+		} catch (SQLException ex) {
+			Logger.getLogger(NCCCStatisticCollector.class.getName()).log(Level.SEVERE, null, ex);
+		}
+
+		return null;
+	}
+
+	@Override
+	public void hookIn(final Agent[] agents, final Execution ex) {
+		System.out.println("NETLOAD Statistic Collector registered");
+
+		runningVar = ex.getTest().getRunningVarName();
+		estimator = null;
+		bytes = 0;
+		messages = 0;
+
+		new Hooks.BeforeMessageSentHook() {
+			@Override
+			public void hook(int sender, int recepient, Message msg) {
+				if (sender >= 0) { //not system or something..
+					count(agents[sender], msg);
+				}
+			}
+		}.hookInto(ex);
+
+		new Hooks.TerminationHook() {
+			@Override
+			public void hook() {
+				NetworkLoadRecord r = new NetworkLoadRecord(ex.getTest().getCurrentExecutedAlgorithmInstanceName(),
+						ex.getTest().getCurrentVarValue(), bytes, messages);
+				submit(r);
+				System.out.println(r);
+			}
+		}.hookInto(ex);
+
+	}
+
+	private synchronized void count(Agent sender, Message msg) {
+		if (estimator == null) {
+			/* the variables of the agents are set before the first message */
+			int modulusBits = 512;
+			if (sender instanceof PCSyncBBAgent)
+				modulusBits = ((PCSyncBBAgent)sender).getModulusBits();
+			if (sender instanceof PSyncBBAgent)
+				modulusBits = ((PSyncBBAgent)sender).getModulusBits();
+			estimator = new MessageSizeEstimator(modulusBits);
+		}
+		bytes += estimator.sizeOf(msg.getArgs());
+		messages++;
+	}
+
+	@Override
+	public String getName() {
+		return "Network Load";
+	}
+
+	public static class NetworkLoadRecord extends DBRecord {
+
+		String name;
+		double rVar;
+		double bytes;
+		double messages;
+
+		public NetworkLoadRecord(String name, double rVar, double bytes, double messages) {
+			this.name = name;
+			this.rVar = rVar;
+			this.bytes = bytes;
+			this.messages = messages;
+		}
+
+		@Override
+		public String provideTableName() {
+			return "NETLOAD";
+		}
+
+		@Override
+		public String toString() {
+			return "NETLOADRecord [name=" + name + ", rVar=" + rVar + ", bytes=" + bytes + ", messages=" + messages + "]";
+		}
+
+	}
+}
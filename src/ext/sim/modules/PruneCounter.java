@@ -0,0 +1,102 @@
+package ext.sim.modules;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import bgu.dcr.az.api.Agent;
+import bgu.dcr.az.api.Hooks;
+import bgu.dcr.az.api.ano.Register;
+import bgu.dcr.az.api.exen.Execution;
+import bgu.dcr.az.api.exen.Test;
+import bgu.dcr.az.api.exen.stat.DBRecord;
+import bgu.dcr.az.api.exen.stat.Database;
+import bgu.dcr.az.api.exen.stat.VisualModel;
+import bgu.dcr.az.api.exen.stat.vmod.LineVisualModel;
+import bgu.dcr.az.exen.stat.AbstractStatisticCollector;
+import bgu.dcr.az.exen.stat.NCCCStatisticCollector;
+import ext.sim.agents.PCSyncBBAgent;
+
+/**
+ * This class collects the total number of values that the PC-SyncBB agents pruned, i.e., the calls to
+ * compare_CPA_cost_to_upper_bound() by a non-last agent whose CPA was not cheaper than the upper bound
+ * (see prune_counter and value-ordering in PCSyncBBAgent).
+ *
+ * @author Tal Grinshpoun
+ */
+@Register(name = "prune-sc")
+public class PruneCounter extends AbstractStatisticCollector<PruneCounter.PruneRecord> {
+
+	private String runningVar;
+
+	@Override
+	public VisualModel analyze(Database db, Test r) {
+		String query = "select AVG(value) as avg, rVar, ALGORITHM_INSTANCE from PRUNE where TEST = '" + r.getName()
+				+ "' group by ALGORITHM_INSTANCE, rVar order by rVar";
+		LineVisualModel line = new LineVisualModel(runningVar, "Avg(PRUNE)", "PRUNE");
+		try {
+			ResultSet rs = db.query(query);
+			while (rs.next()) {
+				line.setPoint(rs.getString("ALGORITHM_INSTANCE"), rs.getFloat("rVar"), rs.getFloat("avg"));
+			}
+			return line;
+		} catch (SQLException ex) {
+			Logger.getLogger(NCCCStatisticCollector.class.getName()).log(Level.SEVERE, null, ex);
+		}
+
+		return null;
+	}
+
+	@Override
+	public void hookIn(final Agent[] agents, final Execution ex) {
+		System.out.println("PRUNE Statistic Collector registered");
+
+		runningVar = ex.getTest().getRunningVarName();
+
+		new Hooks.TerminationHook() {
+			@Override
+			public void hook() {
+				if (agents[0] instanceof PCSyncBBAgent) {
+					double sum = 0;
+					for (Agent agent : agents)
+						sum += ((PCSyncBBAgent)agent).prune_counter;
+
+					PruneRecord r = new PruneRecord(ex.getTest().getCurrentExecutedAlgorithmInstanceName(),
+							ex.getTest().getCurrentVarValue(), sum);
+					submit(r);
+					System.out.println(r);
+				}
+			}
+		}.hookInto(ex);
+
+	}
+
+	@Override
+	public String getName() {
+		return "Number Of Pruned Values";
+	}
+
+	public static class PruneRecord extends DBRecord {
+
+		String name;
+		double rVar;
+		double value;
+
+		public PruneRecord(String name, double rVar, double value) {
+			this.name = name;
+			this.rVar = rVar;
+			this.value = value;
+		}
+
+		@Override
+		public String provideTableName() {
+			return "PRUNE";
+		}
+
+		@Override
+		public String toString() {
+			return "PRUNERecord [name=" + name + ", rVar=" + rVar + ", value=" + value + "]";
+		}
+	}
+}
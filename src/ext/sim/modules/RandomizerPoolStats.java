@@ -0,0 +1,123 @@
+package ext.sim.modules;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import bgu.dcr.az.api.Agent;
+import bgu.dcr.az.api.Hooks;
+import bgu.dcr.az.api.ano.Register;
+import bgu.dcr.az.api.exen.Execution;
+import bgu.dcr.az.api.exen.Test;
+import bgu.dcr.az.api.exen.stat.DBRecord;
+import bgu.dcr.az.api.exen.stat.Database;
+import bgu.dcr.az.api.exen.stat.VisualModel;
+import bgu.dcr.az.api.exen.stat.vmod.LineVisualModel;
+import bgu.dcr.az.exen.stat.AbstractStatisticCollector;
+import bgu.dcr.az.exen.stat.NCCCStatisticCollector;
+import ext.sim.agents.PCSyncBBAgent;
+import ext.sim.agents.PSyncBBAgent;
+import ext.sim.tools.privacy.PaillierRandomizerPool;
+
+/**
+ * This class collects the statistics of the agents' pools of precomputed Paillier randomizers: the number of
+ * randomizers taken from the pools (hits), the number of randomizers computed synchronously (misses), and the
+ * time spent on refilling the pools in the background (which is not part of the NCR).
+ * The pools are shut down when the execution terminates.
+ *
+ * @author Tal Grinshpoun
+ */
+@Register(name = "rpool-sc")
+public class RandomizerPoolStats extends AbstractStatisticCollector<RandomizerPoolStats.RPoolRecord> {
+
+	private String runningVar;
+
+	@Override
+	public VisualModel analyze(Database db, Test r) {
+		String query = "select AVG(hits * 1.0 / (hits + misses)) as avg, rVar, ALGORITHM_INSTANCE from RPOOL where TEST = '" + r.getName()
+				+ "' and hits + misses > 0 group by ALGORITHM_INSTANCE, rVar order by rVar";
+		LineVisualModel line = new LineVisualModel(runningVar, "Avg(Hit Rate)", "RPOOL");
+		try {
+			ResultSet rs = db.query(query);
+			while (rs.next()) {
+				line.setPoint(rs.getString("ALGORITHM_INSTANCE"), rs.getFloat("rVar"), rs.getFloat("avg"));
+			}
+			return line;
+		} catch (SQLException ex) {
+			Logger.getLogger(NCCCStatisticCollector.class.getName()).log(Level.SEVERE, null, ex);
+		}
+
+		return null;
+	}
+
+	@Override
+	public void hookIn(final Agent[] agents, final Execution ex) {
+		System.out.println("RPOOL Statistic Collector registered");
+
+		runningVar = ex.getTest().getRunningVarName();
+
+		new Hooks.TerminationHook() {
+			@Override
+			public void hook() {
+				double hits = 0, misses = 0, refillNanos = 0;
+				boolean found = false;
+				for (Agent agent : agents) {
+					PaillierRandomizerPool pool = null;
+					if (agent instanceof PCSyncBBAgent)
+						pool = ((PCSyncBBAgent)agent).getRandomizerPool();
+					if (agent instanceof PSyncBBAgent)
+						pool = ((PSyncBBAgent)agent).getRandomizerPool();
+					if (pool != null) {
+						found = true;
+						hits += pool.getHits();
+						misses += pool.getMisses();
+						refillNanos += pool.getRefillNanos();
+						pool.shutdown();
+					}
+				}
+				
+				if (found) {
+					RPoolRecord r = new RPoolRecord(ex.getTest().getCurrentExecutedAlgorithmInstanceName(),
+							ex.getTest().getCurrentVarValue(), hits, misses, refillNanos);
+					submit(r);
+					System.out.println(r);
+				}
+			}
+		}.hookInto(ex);
+
+	}
+
+	@Override
+	public String getName() {
+		return "Randomizer Pool Statistics";
+	}
+
+	public static class RPoolRecord extends DBRecord {
+
+		String name;
+		double rVar;
+		double hits;
+		double misses;
+		double refillNanos;
+
+		public RPoolRecord(String name, double rVar, double hits, double misses, double refillNanos) {
+			this.name = name;
+			this.rVar = rVar;
+			this.hits = hits;
+			this.misses = misses;
+			this.refillNanos = refillNanos;
+		}
+
+		@Override
+		public String provideTableName() {
+			return "RPOOL";
+		}
+
+		@Override
+		public String toString() {
+			return "RPOOLRecord [name=" + name + ", rVar=" + rVar + ", hits=" + hits + ", misses=" + misses + ", refillNanos=" + refillNanos + "]";
+		}
+
+	}
+}
@@ -6,6 +6,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 
+import ext.sim.tools.CostBound;
 import ext.sim.tools.graph.Graph;
 import ext.sim.tools.graph.Vertex;
 import ext.sim.tools.graph.gen.ScaleFreeGraphGenerator;
@@ -75,6 +76,7 @@ public class ScaleFreeDCOP extends AbstractProblemGenerator {
 				}
 			}
 		}
+		CostBound.publish(p);
 		
 		
 
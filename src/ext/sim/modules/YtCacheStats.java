@@ -0,0 +1,109 @@
+package ext.sim.modules;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import bgu.dcr.az.api.Agent;
+import bgu.dcr.az.api.Hooks;
+import bgu.dcr.az.api.ano.Register;
+import bgu.dcr.az.api.exen.Execution;
+import bgu.dcr.az.api.exen.Test;
+import bgu.dcr.az.api.exen.stat.DBRecord;
+import bgu.dcr.az.api.exen.stat.Database;
+import bgu.dcr.az.api.exen.stat.VisualModel;
+import bgu.dcr.az.api.exen.stat.vmod.LineVisualModel;
+import bgu.dcr.az.exen.stat.AbstractStatisticCollector;
+import bgu.dcr.az.exen.stat.NCCCStatisticCollector;
+import ext.sim.agents.PCSyncBBAgent;
+
+/**
+ * This class collects the statistics of the PC-SyncBB agents' caches of the precomputed powers of the vectors Z of
+ * their predecessor neighbors (see yt-cache-size in PCSyncBBAgent): the number of Y_t computed from a cached vector
+ * Z (hits), and the number of Y_t whose vector Z was not in the cache (misses).
+ *
+ * @author Tal Grinshpoun
+ */
+@Register(name = "ytcache-sc")
+public class YtCacheStats extends AbstractStatisticCollector<YtCacheStats.YtCacheRecord> {
+
+	private String runningVar;
+
+	@Override
+	public VisualModel analyze(Database db, Test r) {
+		String query = "select AVG(hits * 1.0 / (hits + misses)) as avg, rVar, ALGORITHM_INSTANCE from YTCACHE where TEST = '" + r.getName()
+				+ "' and hits + misses > 0 group by ALGORITHM_INSTANCE, rVar order by rVar";
+		LineVisualModel line = new LineVisualModel(runningVar, "Avg(Hit Rate)", "YTCACHE");
+		try {
+			ResultSet rs = db.query(query);
+			while (rs.next()) {
+				line.setPoint(rs.getString("ALGORITHM_INSTANCE"), rs.getFloat("rVar"), rs.getFloat("avg"));
+			}
+			return line;
+		} catch (SQLException ex) {
+			Logger.getLogger(NCCCStatisticCollector.class.getName()).log(Level.SEVERE, null, ex);
+		}
+
+		return null;
+	}
+
+	@Override
+	public void hookIn(final Agent[] agents, final Execution ex) {
+		System.out.println("YTCACHE Statistic Collector registered");
+
+		runningVar = ex.getTest().getRunningVarName();
+
+		new Hooks.TerminationHook() {
+			@Override
+			public void hook() {
+				double hits = 0, misses = 0;
+				boolean found = false;
+				for (Agent agent : agents)
+					if (agent instanceof PCSyncBBAgent) {
+						found = true;
+						hits += ((PCSyncBBAgent)agent).getYtCacheHits();
+						misses += ((PCSyncBBAgent)agent).getYtCacheMisses();
+					}
+
+				if (found) {
+					YtCacheRecord r = new YtCacheRecord(ex.getTest().getCurrentExecutedAlgorithmInstanceName(),
+							ex.getTest().getCurrentVarValue(), hits, misses);
+					submit(r);
+					System.out.println(r);
+				}
+			}
+		}.hookInto(ex);
+
+	}
+
+	@Override
+	public String getName() {
+		return "Y_t Cache Statistics";
+	}
+
+	public static class YtCacheRecord extends DBRecord {
+
+		String name;
+		double rVar;
+		double hits;
+		double misses;
+
+		public YtCacheRecord(String name, double rVar, double hits, double misses) {
+			this.name = name;
+			this.rVar = rVar;
+			this.hits = hits;
+			this.misses = misses;
+		}
+
+		@Override
+		public String provideTableName() {
+			return "YTCACHE";
+		}
+
+		@Override
+		public String toString() {
+			return "YTCACHERecord [name=" + name + ", rVar=" + rVar + ", hits=" + hits + ", misses=" + misses + "]";
+		}
+	}
+}
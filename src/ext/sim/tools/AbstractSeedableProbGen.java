@@ -101,6 +101,8 @@ public abstract class AbstractSeedableProbGen extends AbstractProblemGenerator i
 		
 		// now call the implementation to actually generate the problem
 		__generate(prob, rand);
+		// and publish the bounds on the costs of the generated constraints (see CostBound)
+		CostBound.publish(prob);
 	}
 	
 	/**
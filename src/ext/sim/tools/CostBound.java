@@ -0,0 +1,119 @@
+package ext.sim.tools;
+
+import java.util.Map;
+
+import bgu.dcr.az.api.prob.ImmutableProblem;
+
+/**
+ * Computes bounds on the costs of a problem from its actual constraints, instead of from the parameters of its
+ * generator (e.g., n*(n-1)/2 times max-cost, or the cost of a hard constraint of meeting scheduling for every pair):
+ * the cost bound is the sum of the maximal costs of the constraints over the constraint graph, i.e., over every pair of
+ * neighbors (each pair once, taking the maximum of both directions), plus the maximal unary cost of every agent.
+ * The cost of every complete or partial assignment is at most the cost bound (which the CPA cost, including its
+ * unary costs, never exceeds), and the cost of every binary constraint is at most the maximal constraint cost.
+ * The problem generators publish both bounds in the metadata of the problem (see publish), so the agents, e.g., of
+ * PC-SyncBB, do not need to know how the problem was generated.
+ *
+ * @author Tal Grinshpoun
+ *
+ */
+public final class CostBound {
+
+	/**
+	 * the metadata key of the sum of the maximal costs of the constraints (a Long)
+	 */
+	public static final String COST_BOUND = "cost-bound";
+	/**
+	 * the metadata key of the maximal cost of a binary constraint (an Integer)
+	 */
+	public static final String MAX_CONSTRAINT_COST = "max-constraint-cost";
+
+	private CostBound() {
+	}
+
+	/**
+	 * @param p a problem
+	 * @return the sum of the maximal costs of all the constraints of the problem (binary and unary)
+	 */
+	public static long of(ImmutableProblem p) {
+		long bound = 0;
+		for (int i=0; i<p.getNumberOfVariables(); i++) {
+			bound += maxUnaryCost(p, i);
+			for (int j : p.getNeighbors(i))
+				if (j > i)
+					bound += maxCost(p, i, j);
+		}
+		return bound;
+	}
+
+	/**
+	 * @param p a problem
+	 * @return the maximal cost of a binary constraint of the problem (0 if there are no constraints)
+	 */
+	public static int maxConstraintCost(ImmutableProblem p) {
+		int max = 0;
+		for (int i=0; i<p.getNumberOfVariables(); i++)
+			for (int j : p.getNeighbors(i))
+				if (j > i)
+					max = Math.max(max, maxCost(p, i, j));
+		return max;
+	}
+
+	/**
+	 * Puts the cost bound (COST_BOUND) and the maximal constraint cost (MAX_CONSTRAINT_COST) in the metadata of the problem.
+	 * @param p a generated problem
+	 */
+	public static void publish(ImmutableProblem p) {
+		Map<String, Object> metadata = p.getMetadata();
+		metadata.put(COST_BOUND, of(p));
+		metadata.put(MAX_CONSTRAINT_COST, maxConstraintCost(p));
+	}
+
+	/**
+	 * The minimal cost that an agent adds to any CPA that assigns it: the minimum over its values of the unary cost of
+	 * the value plus, for every predecessor neighbor (a neighbor with a smaller id), the minimal cost of their constraint
+	 * with the value. Every constraint is counted only by its later agent, so the sum of the minimal costs of the agents
+	 * after k is a lower bound on the cost that any completion adds to a CPA of the agents 0, ..., k (forward bounding),
+	 * as long as the cost of the CPA also counts the unary costs (as cpa.calcCost and the secret of the secure
+	 * comparisons of PC-SyncBB do). The agent computes it from its own constraints only.
+	 * @param p a problem
+	 * @param agent an agent of the problem
+	 * @return the minimal cost of the agent with its predecessors
+	 */
+	public static int minimalCostWithPredecessors(ImmutableProblem p, int agent) {
+		int min = Integer.MAX_VALUE;
+		for (int v : p.getDomainOf(agent)) {
+			int cost = p.getConstraintCost(agent, v);
+			for (int t : p.getNeighbors(agent))
+				if (t < agent) {
+					int minT = Integer.MAX_VALUE;
+					for (int vt : p.getDomainOf(t))
+						minT = Math.min(minT, p.getConstraintCost(t, vt, agent, v));
+					cost += minT;
+				}
+			min = Math.min(min, cost);
+		}
+		return (min == Integer.MAX_VALUE) ? 0 : min;
+	}
+
+	/**
+	 * @return the maximal unary cost of the agent
+	 */
+	private static int maxUnaryCost(ImmutableProblem p, int agent) {
+		int max = 0;
+		for (int v : p.getDomainOf(agent))
+			max = Math.max(max, p.getConstraintCost(agent, v));
+		return max;
+	}
+
+	/**
+	 * @return the maximal cost of the constraint between i and j, in both directions
+	 */
+	private static int maxCost(ImmutableProblem p, int i, int j) {
+		int max = 0;
+		for (int vi : p.getDomainOf(i))
+			for (int vj : p.getDomainOf(j))
+				max = Math.max(max, Math.max(p.getConstraintCost(i, vi, j, vj), p.getConstraintCost(j, vj, i, vi)));
+		return max;
+	}
+}
@@ -0,0 +1,98 @@
+package ext.sim.tools;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import bgu.dcr.az.api.prob.ImmutableProblem;
+
+/**
+ * The orders in which a PC-SyncBB agent tries the values of its domain for every CPA. In PC-SyncBB an agent does not
+ * learn the values of the other agents (nor the cost of the CPA), so unlike SyncBB (findMinimalCostValue) it cannot order
+ * its values by their added cost to the CPA. Instead, the orders below are static, i.e., they are computed once from
+ * the constraints that the agent knows anyway (its own constraints), and they do not depend on the CPA:
+ * RANDOM - a random order for every CPA (as in the published results);
+ * UNARY - by the unary cost of the value plus, for every neighbor, the minimal cost of the constraint with the value
+ *         (the unary projection of the constraints, i.e., a lower bound on the cost of the value in any solution);
+ * PREDECESSOR - by the unary cost of the value plus, for every predecessor neighbor, the average cost of the constraint
+ *         with the value over the domain of the predecessor (the expected added cost of the value to a CPA).
+ * Values with the same score are tried in a random order. Trying cheaper values first finds lower upper bounds earlier,
+ * so fewer values are tried (fewer calls to compare_CPA_cost_to_upper_bound(), counted by counter2) and more values
+ * are pruned (counted by prune_counter).
+ *
+ * @author Tal Grinshpoun
+ *
+ */
+public enum ValueOrdering {
+	RANDOM {
+		@Override
+		protected double score(ImmutableProblem p, int agent, int value) {
+			return 0;
+		}
+	},
+	UNARY {
+		@Override
+		protected double score(ImmutableProblem p, int agent, int value) {
+			double score = p.getConstraintCost(agent, value);
+			for (int t : p.getNeighbors(agent)) {
+				int min = Integer.MAX_VALUE;
+				for (int vt : p.getDomainOf(t))
+					min = Math.min(min, p.getConstraintCost(t, vt, agent, value));
+				score += min;
+			}
+			return score;
+		}
+	},
+	PREDECESSOR {
+		@Override
+		protected double score(ImmutableProblem p, int agent, int value) {
+			double score = p.getConstraintCost(agent, value);
+			for (int t : p.getNeighbors(agent))
+				if (t < agent) {
+					long sum = 0;
+					for (int vt : p.getDomainOf(t))
+						sum += p.getConstraintCost(t, vt, agent, value);
+					score += (double) sum / p.getDomainSize(t);
+				}
+			return score;
+		}
+	};
+
+	/**
+	 * @return the score of the value of the agent (lower values are tried first)
+	 */
+	protected abstract double score(ImmutableProblem p, int agent, int value);
+
+	/**
+	 * @param p a problem
+	 * @param agent an agent of the problem
+	 * @return the scores of all the values of the agent
+	 */
+	public Map<Integer, Double> scores(ImmutableProblem p, int agent) {
+		Map<Integer, Double> scores = new HashMap<>();
+		for (int value : p.getDomainOf(agent))
+			scores.put(value, score(p, agent, value));
+		return scores;
+	}
+
+	/**
+	 * Orders the values by their scores, and the values with the same score randomly.
+	 * @param values the values of the agent (reordered in place)
+	 * @param scores the scores of the values (see scores)
+	 * @param random the source of the random order (e.g., a stream seeded by alg-seed, so that runs are reproducible)
+	 */
+	public void order(List<Integer> values, final Map<Integer, Double> scores, Random random) {
+		Collections.shuffle(values, random);
+		if (this != RANDOM)
+			// The sort is stable, so it keeps the random order of the ties
+			Collections.sort(values, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer v1, Integer v2) {
+					return Double.compare(scores.get(v1), scores.get(v2));
+				}
+			});
+	}
+}
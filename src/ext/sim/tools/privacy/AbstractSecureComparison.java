@@ -0,0 +1,117 @@
+package ext.sim.tools.privacy;
+
+import java.math.BigInteger;
+import java.util.function.Consumer;
+
+/**
+ * The common first round of the secure comparisons: the initiator asks all the other agents for their shares (REQUEST),
+ * every agent sends its share encrypted with the public key of the aggregator (SHARE), and the initiator adds them
+ * homomorphically to E(d), where d is the secret. The rest of the protocol (the steps after SHARE) is up to the subclass,
+ * which calls finish with the result at the initiator.
+ *
+ * @author Tal Grinshpoun
+ *
+ */
+public abstract class AbstractSecureComparison implements SecureComparison {
+
+	public static final int REQUEST = 0, SHARE = 1;
+
+	protected final Party party;
+	protected final int secretBits;
+
+	/* The state of the comparison of the initiator */
+	protected int compareId = 0;
+	private Consumer<Boolean> callback;
+	private BigInteger sum;
+	private int missingShares;
+
+	/**
+	 * @param party the agent side of the protocol
+	 * @param secretBits bound on the number of bits of the absolute value of the secret
+	 */
+	public AbstractSecureComparison(Party party, int secretBits) {
+		this.party = party;
+		this.secretBits = secretBits;
+	}
+
+	@Override
+	public void compare(Consumer<Boolean> callback) {
+		if (this.callback != null)
+			throw new IllegalStateException("Agent "+party.getId()+" started a comparison before the previous one finished");
+		if (party.getNumberOfParties() < 2)
+			throw new IllegalStateException("A secure comparison requires at least two agents");
+		this.callback = callback;
+		compareId++;
+		sum = encrypt(aggregatorKey(party.getId()), party.getShare(party.getId()));
+		missingShares = party.getNumberOfParties() - 1;
+		for (int i=0; i<party.getNumberOfParties(); i++)
+			if (i != party.getId())
+				party.send(i, compareId, REQUEST, new BigInteger[0]);
+	}
+
+	@Override
+	public void handle(int sender, int id, int step, BigInteger[] payload) {
+		switch (step) {
+		case REQUEST:
+			party.send(sender, id, SHARE, new BigInteger[] {encrypt(aggregatorKey(sender), party.getShare(sender))});
+			break;
+		case SHARE:
+			checkCurrent(id);
+			sum = aggregatorKey(party.getId()).add(sum, payload[0]);
+			if (--missingShares == 0)
+				secretEncrypted(sum);
+			break;
+		default:
+			handleStep(sender, id, step, payload);
+		}
+	}
+
+	/**
+	 * Called at the initiator when it has E(d) (with the public key of the aggregator).
+	 */
+	protected abstract void secretEncrypted(BigInteger encryptedSecret);
+
+	/**
+	 * Handles a message of a step after SHARE.
+	 */
+	protected abstract void handleStep(int sender, int id, int step, BigInteger[] payload);
+
+	/**
+	 * Ends the comparison of the initiator.
+	 * @param positive true if the secret is positive
+	 */
+	protected void finish(boolean positive) {
+		Consumer<Boolean> done = callback;
+		callback = null;
+		done.accept(positive);
+	}
+
+	/**
+	 * @throws IllegalStateException if the message is not of the current comparison of the initiator
+	 */
+	protected void checkCurrent(int id) {
+		if (callback == null || id != compareId)
+			throw new IllegalStateException("Agent "+party.getId()+" got a message of comparison "+id+" while in comparison "+(callback == null ? "none" : compareId));
+	}
+
+	/**
+	 * @return the public key of the aggregator of the comparisons of the initiator
+	 */
+	protected PaillierPublicKey aggregatorKey(int initiator) {
+		return party.getPublicKey(SecureComparison.getAggregator(initiator));
+	}
+
+	/**
+	 * Encrypts a possibly negative value (modulo n), drawing the randomizer from the masks of the agent.
+	 */
+	protected BigInteger encrypt(PaillierPublicKey publicKey, BigInteger m) {
+		return publicKey.EncryptionWithRandomizer(m, publicKey.newRandomizer(party.getRandom()));
+	}
+
+	/**
+	 * Rerandomizes a ciphertext, drawing the randomizer from the masks of the agent.
+	 */
+	protected BigInteger rerandomize(PaillierPublicKey publicKey, BigInteger c) {
+		return publicKey.rerandomize(c, publicKey.newRandomizer(party.getRandom()));
+	}
+}
@@ -0,0 +1,48 @@
+package ext.sim.tools.privacy;
+
+import java.math.BigInteger;
+
+/**
+ * The reference implementation of CiphertextOps with immutable BigIntegers (BigInteger.modPow and MultiExponentiation).
+ *
+ * @author Tal Grinshpoun
+ *
+ */
+public class BigIntegerCiphertextOps implements CiphertextOps {
+
+	private final BigInteger modulus;
+
+	public BigIntegerCiphertextOps(BigInteger modulus) {
+		this.modulus = modulus;
+	}
+
+	@Override
+	public BigInteger getModulus() {
+		return modulus;
+	}
+
+	@Override
+	public Backend getBackend() {
+		return Backend.BIGINTEGER;
+	}
+
+	@Override
+	public BigInteger multiply(BigInteger a, BigInteger b) {
+		return a.multiply(b).mod(modulus);
+	}
+
+	@Override
+	public BigInteger pow(BigInteger base, BigInteger exponent) {
+		return base.modPow(exponent, modulus);
+	}
+
+	@Override
+	public BigInteger product(BigInteger[] values) {
+		return MultiExponentiation.product(values, modulus);
+	}
+
+	@Override
+	public BigInteger dotProduct(BigInteger[] bases, BigInteger[] exponents) {
+		return MultiExponentiation.straus(bases, exponents, modulus);
+	}
+}
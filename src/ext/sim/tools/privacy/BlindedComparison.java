@@ -0,0 +1,71 @@
+package ext.sim.tools.privacy;
+
+import java.math.BigInteger;
+import java.util.function.Consumer;
+
+/**
+ * A secure comparison by multiplicative blinding: after the initiator has E(d) (see AbstractSecureComparison),
+ * 1. the initiator sends E(f*(r*d - r')) to the aggregator (BLINDED), where r is a random of BLINDING_BITS bits,
+ *    r' is a random in [1, r) and f is a random sign, so r*d - r' is positive iff d is positive;
+ * 2. the aggregator decrypts and replies whether the blinded value is positive (RESULT), and the initiator removes f.
+ * The initiator sees only ciphertexts of the aggregator, and the aggregator sees only the blinded value, whose sign is
+ * independent of the result (because of f). However, its absolute value is not: since r is in [2^(BLINDING_BITS-1),
+ * 2^BLINDING_BITS) and r' < r, |r*d - r'| / 2^(BLINDING_BITS-1) is within a factor of 2 of |d| (and below 1 iff d = 0),
+ * so in every comparison the aggregator learns the magnitude of d, i.e., roughly the number of bits of the difference
+ * between the upper bound and the cost of the CPA (but not which of them is larger). DgkComparison, in which the
+ * aggregator sees only uniformly random or statistically hidden values, keeps the published privacy guarantees.
+ *
+ * @author Tal Grinshpoun
+ *
+ */
+public class BlindedComparison extends AbstractSecureComparison {
+
+	public static final int BLINDED = 2, RESULT = 3;
+	public static final int BLINDING_BITS = 128;
+
+	private boolean flipped;
+
+	/**
+	 * @param party the agent side of the protocol
+	 * @param secretBits bound on the number of bits of the absolute value of the secret
+	 */
+	public BlindedComparison(Party party, int secretBits) {
+		super(party, secretBits);
+	}
+
+	@Override
+	public void compare(Consumer<Boolean> callback) {
+		if (party.getNumberOfParties() > 1 && aggregatorKey(party.getId()).n.bitLength() <= BLINDING_BITS + secretBits + 2)
+			throw new IllegalStateException("The modulus of the aggregator is too small for blinding "+secretBits+"-bit secrets");
+		super.compare(callback);
+	}
+
+	@Override
+	protected void secretEncrypted(BigInteger encryptedSecret) {
+		PaillierPublicKey publicKey = aggregatorKey(party.getId());
+		BigInteger r = new BigInteger(BLINDING_BITS, party.getRandom()).setBit(BLINDING_BITS - 1);
+		BigInteger rPrime = new BigInteger(BLINDING_BITS - 2, party.getRandom()).add(BigInteger.ONE);
+		flipped = party.getRandom().nextBoolean();
+		/* E(-d) = E(d)^(-1), which is cheaper than the exponent n-1 */
+		BigInteger base = flipped ? encryptedSecret.modInverse(publicKey.nsquare) : encryptedSecret;
+		BigInteger blinded = publicKey.add(publicKey.multiply(base, r), encrypt(publicKey, flipped ? rPrime : rPrime.negate()));
+		party.send(SecureComparison.getAggregator(party.getId()), compareId, BLINDED, new BigInteger[] {blinded});
+	}
+
+	@Override
+	protected void handleStep(int sender, int id, int step, BigInteger[] payload) {
+		switch (step) {
+		case BLINDED:
+			Paillier paillier = party.getCryptoSystem();
+			boolean positive = paillier.getPublicKey().toSigned(paillier.DecryptionCRT(payload[0])).signum() > 0;
+			party.send(sender, id, RESULT, new BigInteger[] {positive ? BigInteger.ONE : BigInteger.ZERO});
+			break;
+		case RESULT:
+			checkCurrent(id);
+			finish(payload[0].signum() > 0 ^ flipped);
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown step "+step);
+		}
+	}
+}
@@ -0,0 +1,179 @@
+package ext.sim.tools.privacy;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed-width binary serialization of ciphertexts (or any values in [0, modulus)): every value is written as an
+ * unsigned big-endian byte array of exactly getWidth() = ceil(bits(modulus)/8) bytes, i.e., without the sign byte
+ * and the length prefix of BigInteger.toByteArray() and of Java serialization. A vector has a single header
+ * (the number of values and the width, as two ints) followed by the values back to back, so its size is
+ * HEADER_SIZE + count*width for any contents.
+ * The ByteBuffer methods work in place on the position of the buffer: writing pads into the buffer directly, and
+ * reading a heap buffer constructs the BigInteger from the backing array without an intermediate copy
+ * (with the offset constructor of BigInteger of Java 9).
+ *
+ * @author Tal Grinshpoun
+ *
+ */
+public class CiphertextCodec {
+
+	/**
+	 * the size of the header of a vector: the number of values and the width (two ints)
+	 */
+	public static final int HEADER_SIZE = 8;
+
+	private final int width;
+	private final BigInteger bound;
+
+	/**
+	 * Constructs the codec of the values in [0, modulus), e.g., of the ciphertexts of a Paillier key with modulus = n^2.
+	 * @param modulus the modulus
+	 */
+	public CiphertextCodec(BigInteger modulus) {
+		this.width = (modulus.bitLength() + 7) / 8;
+		this.bound = BigInteger.ONE.shiftLeft(8 * width);
+	}
+
+	/**
+	 * Constructs the codec of the values of at most the given number of bits, e.g., 2*modulusBits for the ciphertexts of
+	 * any Paillier key of modulusBits bits (when the key itself is not known).
+	 * @param bits number of bits of the values
+	 */
+	public CiphertextCodec(int bits) {
+		if (bits <= 0)
+			throw new IllegalArgumentException("The number of bits must be positive, got "+bits);
+		this.width = (bits + 7) / 8;
+		this.bound = BigInteger.ONE.shiftLeft(8 * width);
+	}
+
+	/**
+	 * @param publicKey a Paillier public key
+	 * @return the codec of the ciphertexts of the key (modulo n^2)
+	 */
+	public static CiphertextCodec forPublicKey(PaillierPublicKey publicKey) {
+		return new CiphertextCodec(publicKey.nsquare);
+	}
+
+	/**
+	 * @return the number of bytes of every value
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * @param count number of values
+	 * @return the number of bytes of a vector of count values
+	 */
+	public int encodedSize(int count) {
+		return HEADER_SIZE + count * width;
+	}
+
+	/**
+	 * Writes a value at the position of the buffer and advances the position by getWidth().
+	 * @throws IllegalArgumentException if the value is negative or does not fit in getWidth() bytes
+	 * @throws java.nio.BufferOverflowException if the buffer has less than getWidth() bytes remaining
+	 */
+	public void write(BigInteger value, ByteBuffer buffer) {
+		if (value.signum() < 0 || value.compareTo(bound) >= 0)
+			throw new IllegalArgumentException("The value does not fit in "+width+" bytes: "+value);
+		if (buffer.remaining() < width)
+			throw new java.nio.BufferOverflowException();
+		/* toByteArray() is the minimal two's complement form: possibly a leading zero sign byte, and possibly shorter than the width */
+		byte[] bytes = value.toByteArray();
+		int skip = bytes.length - width;
+		if (skip > 0) {
+			buffer.put(bytes, skip, width);
+		}
+		else {
+			for (int i=skip; i<0; i++)
+				buffer.put((byte) 0);
+			buffer.put(bytes);
+		}
+	}
+
+	/**
+	 * Reads a value at the position of the buffer and advances the position by getWidth().
+	 * @throws java.nio.BufferUnderflowException if the buffer has less than getWidth() bytes remaining
+	 */
+	public BigInteger read(ByteBuffer buffer) {
+		if (buffer.remaining() < width)
+			throw new java.nio.BufferUnderflowException();
+		BigInteger value;
+		if (buffer.hasArray()) {
+			value = new BigInteger(1, buffer.array(), buffer.arrayOffset() + buffer.position(), width);
+			buffer.position(buffer.position() + width);
+		}
+		else {
+			byte[] bytes = new byte[width];
+			buffer.get(bytes);
+			value = new BigInteger(1, bytes);
+		}
+		return value;
+	}
+
+	/**
+	 * Writes a vector (the header and the values) at the position of the buffer.
+	 * @throws IllegalArgumentException if a value does not fit in getWidth() bytes
+	 */
+	public void writeVector(BigInteger[] values, ByteBuffer buffer) {
+		if (buffer.remaining() < encodedSize(values.length))
+			throw new java.nio.BufferOverflowException();
+		buffer.putInt(values.length);
+		buffer.putInt(width);
+		for (BigInteger value : values)
+			write(value, buffer);
+	}
+
+	/**
+	 * Reads a vector (the header and the values) at the position of the buffer.
+	 * @throws IllegalArgumentException if the header is of a different width or of a negative number of values
+	 */
+	public BigInteger[] readVector(ByteBuffer buffer) {
+		int count = buffer.getInt();
+		int vectorWidth = buffer.getInt();
+		if (vectorWidth != width)
+			throw new IllegalArgumentException("The vector has values of "+vectorWidth+" bytes but the codec has "+width);
+		if (count < 0 || (long) count * width > buffer.remaining())
+			throw new IllegalArgumentException("Bad number of values in the vector: "+count);
+		BigInteger[] values = new BigInteger[count];
+		for (int i=0; i<count; i++)
+			values[i] = read(buffer);
+		return values;
+	}
+
+	/**
+	 * @return the value as a byte array of getWidth() bytes
+	 */
+	public byte[] encode(BigInteger value) {
+		ByteBuffer buffer = ByteBuffer.allocate(width);
+		write(value, buffer);
+		return buffer.array();
+	}
+
+	/**
+	 * @return the value of a byte array of getWidth() bytes
+	 */
+	public BigInteger decode(byte[] bytes) {
+		if (bytes.length != width)
+			throw new IllegalArgumentException("Expected "+width+" bytes, got "+bytes.length);
+		return new BigInteger(1, bytes);
+	}
+
+	/**
+	 * @return the vector as a byte array of encodedSize(values.length) bytes
+	 */
+	public byte[] encodeVector(BigInteger[] values) {
+		ByteBuffer buffer = ByteBuffer.allocate(encodedSize(values.length));
+		writeVector(values, buffer);
+		return buffer.array();
+	}
+
+	/**
+	 * @return the vector of a byte array written by encodeVector
+	 */
+	public BigInteger[] decodeVector(byte[] bytes) {
+		return readVector(ByteBuffer.wrap(bytes));
+	}
+}
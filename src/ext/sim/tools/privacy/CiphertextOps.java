@@ -0,0 +1,61 @@
+package ext.sim.tools.privacy;
+
+import java.math.BigInteger;
+
+/**
+ * The modular arithmetic on ciphertexts, i.e., modulo a fixed modulus (n^2 for Paillier): the homomorphic addition
+ * is a modular multiplication, and the homomorphic multiplication by a scalar is a modular exponentiation.
+ * The BIGINTEGER backend is the reference implementation; the MONTGOMERY backend computes the single multiplications
+ * and the short powers on reusable per-thread limb arrays in the Montgomery domain, so they allocate only their
+ * result, and delegates the products and the dot products to MultiExponentiation, which is faster for them (so it
+ * does not reduce the allocations of the dot products).
+ *
+ * @author Tal Grinshpoun
+ *
+ */
+public interface CiphertextOps {
+
+	public enum Backend {
+		BIGINTEGER, MONTGOMERY;
+
+		/**
+		 * @param modulus an odd modulus
+		 * @return the operations of this backend modulo the given modulus
+		 */
+		public CiphertextOps create(BigInteger modulus) {
+			if (this == MONTGOMERY)
+				return new MontgomeryCiphertextOps(modulus);
+			return new BigIntegerCiphertextOps(modulus);
+		}
+	};
+
+	/**
+	 * @return the modulus
+	 */
+	public BigInteger getModulus();
+
+	/**
+	 * @return the backend of these operations
+	 */
+	public Backend getBackend();
+
+	/**
+	 * @return a*b mod modulus, for a and b in [0, modulus)
+	 */
+	public BigInteger multiply(BigInteger a, BigInteger b);
+
+	/**
+	 * @return base^exponent mod modulus, for base in [0, modulus) and a non-negative exponent
+	 */
+	public BigInteger pow(BigInteger base, BigInteger exponent);
+
+	/**
+	 * @return prod values[i] mod modulus
+	 */
+	public BigInteger product(BigInteger[] values);
+
+	/**
+	 * @return prod bases[i]^exponents[i] mod modulus, for non-negative exponents
+	 */
+	public BigInteger dotProduct(BigInteger[] bases, BigInteger[] exponents);
+}
@@ -0,0 +1,170 @@
+package ext.sim.tools.privacy;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * The Damgard-Jurik generalization of the Paillier cryptosystem: for s >= 1 the plaintexts are in Z_{n^s} and the
+ * ciphertexts are in Z_{n^(s+1)}, i.e., a ciphertext is only (s+1)/s times longer than its plaintext (twice as long
+ * in Paillier, which is the case s = 1). Larger plaintexts, or vectors packed by PaillierPacking into more slots,
+ * fit into a single ciphertext. The generator is 1+n, so the encryption is c = (1+n)^m * r^(n^s) mod n^(s+1).
+ * Decryption computes c^d = (1+n)^m mod n^(s+1) with d = 0 mod lambda and d = 1 mod n^s, and extracts m with
+ * the algorithm of Damgard and Jurik (one step per power of n).
+ *
+ * @author Tal Grinshpoun
+ *
+ */
+public class DamgardJurik {
+
+	private final int s;
+	private final int bitLength;
+	private final BigInteger n;
+	/**
+	 * nPowers[j] = n^j for 0 <= j <= s+1
+	 */
+	private final BigInteger[] nPowers;
+	private final BigInteger lambda, d;
+	/**
+	 * inverseFactorials[k] = (k!)^(-1) mod n^s for 2 <= k <= s
+	 */
+	private final BigInteger[] inverseFactorials;
+	private final Random random = new Random();
+
+	/**
+	 * Constructs an instance with a new random key.
+	 * @param bitLength number of bits of n
+	 * @param s the plaintext space is Z_{n^s}
+	 * @param certainty certainty of the primes generation (as in Paillier)
+	 */
+	public DamgardJurik(int bitLength, int s, int certainty) {
+		this(new BigInteger(bitLength / 2, certainty, new Random()), new BigInteger(bitLength / 2, certainty, new Random()), s);
+	}
+
+	/**
+	 * Constructs an instance from two given primes.
+	 * @param p first prime
+	 * @param q second prime (different from the first one, and of the same length)
+	 * @param s the plaintext space is Z_{n^s}
+	 * @throws IllegalArgumentException if the primes are equal or s < 1
+	 */
+	public DamgardJurik(BigInteger p, BigInteger q, int s) {
+		if (p.equals(q))
+			throw new IllegalArgumentException("The two primes must be different");
+		if (s < 1)
+			throw new IllegalArgumentException("s must be positive, got "+s);
+		this.s = s;
+		this.n = p.multiply(q);
+		this.bitLength = n.bitLength();
+		nPowers = new BigInteger[s+2];
+		nPowers[0] = BigInteger.ONE;
+		for (int j=1; j<nPowers.length; j++)
+			nPowers[j] = nPowers[j-1].multiply(n);
+		BigInteger pMinus1 = p.subtract(BigInteger.ONE), qMinus1 = q.subtract(BigInteger.ONE);
+		lambda = pMinus1.multiply(qMinus1).divide(pMinus1.gcd(qMinus1));
+		d = lambda.multiply(lambda.modInverse(nPowers[s]));
+		inverseFactorials = new BigInteger[s+1];
+		BigInteger factorial = BigInteger.ONE;
+		for (int k=2; k<=s; k++) {
+			factorial = factorial.multiply(BigInteger.valueOf(k));
+			inverseFactorials[k] = factorial.modInverse(nPowers[s]);
+		}
+	}
+
+	/**
+	 * Encrypts plaintext m. ciphertext c = (1+n)^m * r^(n^s) mod n^(s+1).
+	 * @param m plaintext in Z_{n^s}
+	 * @param r random input in Z_n^*
+	 * @return ciphertext as a BigInteger
+	 */
+	public BigInteger Encryption(BigInteger m, BigInteger r) {
+		BigInteger modulus = nPowers[s+1];
+		return gPow(m).multiply(r.modPow(nPowers[s], modulus)).mod(modulus);
+	}
+
+	/**
+	 * Encrypts plaintext m with a random r.
+	 * @param m plaintext in Z_{n^s}
+	 * @return ciphertext as a BigInteger
+	 */
+	public BigInteger Encryption(BigInteger m) {
+		return Encryption(m, new BigInteger(bitLength, random).mod(n));
+	}
+
+	/**
+	 * Computes (1+n)^m mod n^(s+1) by the binomial expansion sum_{k=0}^{s} C(m,k) n^k (the higher terms vanish).
+	 */
+	private BigInteger gPow(BigInteger m) {
+		BigInteger modulus = nPowers[s+1];
+		BigInteger result = BigInteger.ONE;
+		BigInteger binomial = BigInteger.ONE;
+		for (int k=1; k<=s; k++) {
+			binomial = binomial.multiply(m.subtract(BigInteger.valueOf(k-1))).divide(BigInteger.valueOf(k));
+			result = result.add(binomial.mod(modulus).multiply(nPowers[k]));
+		}
+		return result.mod(modulus);
+	}
+
+	/**
+	 * Decrypts ciphertext c.
+	 * @param c ciphertext as a BigInteger
+	 * @return plaintext in Z_{n^s}
+	 */
+	public BigInteger Decryption(BigInteger c) {
+		BigInteger a = c.modPow(d, nPowers[s+1]);
+		/* a = (1+n)^m mod n^(s+1), find m mod n^j for j = 1..s */
+		BigInteger i = BigInteger.ZERO;
+		for (int j=1; j<=s; j++) {
+			BigInteger t1 = a.mod(nPowers[j+1]).subtract(BigInteger.ONE).divide(n);
+			BigInteger t2 = i;
+			for (int k=2; k<=j; k++) {
+				i = i.subtract(BigInteger.ONE);
+				t2 = t2.multiply(i).mod(nPowers[j]);
+				t1 = t1.subtract(t2.multiply(nPowers[k-1]).multiply(inverseFactorials[k])).mod(nPowers[j]);
+			}
+			i = t1.mod(nPowers[j]);
+		}
+		return i;
+	}
+
+	/**
+	 * Homomorphic addition: E(m1) * E(m2) = E(m1 + m2).
+	 */
+	public BigInteger add(BigInteger c1, BigInteger c2) {
+		return c1.multiply(c2).mod(nPowers[s+1]);
+	}
+
+	/**
+	 * Homomorphic multiplication by a plaintext scalar: E(m)^k = E(k*m).
+	 */
+	public BigInteger multiply(BigInteger c, BigInteger k) {
+		return c.modPow(k, nPowers[s+1]);
+	}
+
+	/**
+	 * @return n^s, the modulus of the plaintexts
+	 */
+	public BigInteger getPlaintextModulus() {
+		return nPowers[s];
+	}
+
+	/**
+	 * @return n^(s+1), the modulus of the ciphertexts
+	 */
+	public BigInteger getCiphertextModulus() {
+		return nPowers[s+1];
+	}
+
+	/**
+	 * @return the parameter s
+	 */
+	public int getS() {
+		return s;
+	}
+
+	/**
+	 * @return number of bits of n
+	 */
+	public int getBitLength() {
+		return bitLength;
+	}
+}
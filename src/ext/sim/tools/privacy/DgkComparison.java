@@ -0,0 +1,284 @@
+package ext.sim.tools.privacy;
+
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * A secure comparison by the bitwise comparison of Damgard, Geisler and Kroigaard (DGK), over the Paillier key of
+ * the aggregator A. After the initiator k has E(d) (see AbstractSecureComparison), with l = secretBits+1 and
+ * z = d - 1 + 2^l (so d is positive iff the bit l of z is 1):
+ * 1. k sends E(z + rho) to A (MASKED), where rho is a random of l + STATISTICAL_BITS bits;
+ * 2. A decrypts, splits z + rho into H (the bits from l on) and alpha (the low l bits), and replies E(H) and the
+ *    encryptions of the l+1 bits of 2*alpha+1 (BITS);
+ * 3. with beta = rho mod 2^l, k computes for every bit i the encryption of
+ *    a_i - b_i + s + 3 * sum_{j>i} (a_j xor b_j), where a and b are the bits of 2*alpha+1 and 2*beta, and s is a random
+ *    sign, so one of them is 0 iff a < b for s = 1 (a > b for s = -1); k blinds them (by random exponents), shuffles
+ *    them and sends them to A (DGK);
+ * 4. A replies the encryption of whether one of them is 0 (ZERO);
+ * 5. k removes s and gets E(t), where t = [alpha < beta] is the carry of the low bits, so the bit l of z is
+ *    H - (rho >> l) - t; k sends its encryption xor a random bit f to A (UNMASK);
+ * 6. A decrypts and replies the bit (RESULT), and k removes f.
+ * Unlike BlindedComparison, the aggregator sees only values that are uniformly random or statistically hidden by rho,
+ * and the initiator sees only ciphertexts of the aggregator, at the cost of about l decryptions of the aggregator and
+ * 2l homomorphic exponentiations of the initiator per comparison.
+ *
+ * The encryptions of the bits that the aggregator sends (of 0 and 1) do not depend on the comparison, so the aggregator
+ * precomputes them in pools: when it is created, and then after every comparison that it answers, in the background
+ * on the shared pool of PaillierCryptoService (the random inputs are drawn in the handler, so the encryptions do not
+ * depend on the scheduling). The refill is therefore not part of the handlers of the aggregator (nor of its NCR),
+ * unless the next comparison arrives before the refill finishes, in which case the aggregator waits for it. The time
+ * of the background refills is reported by getRefillNanos (and collected by cpool-sc), so that it can be taken into
+ * account when the NCR of the comparison protocols is compared.
+ *
+ * @author Tal Grinshpoun
+ *
+ */
+public class DgkComparison extends AbstractSecureComparison {
+
+	public static final int MASKED = 2, BITS = 3, DGK = 4, ZERO = 5, UNMASK = 6, RESULT = 7;
+	/**
+	 * rho hides z + rho up to a statistical distance of 2^(-STATISTICAL_BITS)
+	 */
+	public static final int STATISTICAL_BITS = 40;
+
+	private final int bits;
+
+	/* The encrypted bits of the aggregator */
+	private final Deque<BigInteger> zeros = new ArrayDeque<>();
+	private final Deque<BigInteger> ones = new ArrayDeque<>();
+	/**
+	 * the background refill of the pools (the new encryptions of 0 and of 1), or null
+	 */
+	private CompletableFuture<BigInteger[][]> refill = null;
+	private final AtomicLong refills = new AtomicLong();
+	private final AtomicLong refillNanos = new AtomicLong();
+
+	/* The state of the comparison of the initiator */
+	private BigInteger rho;
+	private BigInteger encryptedHigh;
+	private boolean negative;
+	private boolean flipped;
+
+	/**
+	 * @param party the agent side of the protocol
+	 * @param secretBits bound on the number of bits of the absolute value of the secret
+	 */
+	public DgkComparison(Party party, int secretBits) {
+		super(party, secretBits);
+		bits = secretBits + 1;
+		if (party.getNumberOfParties() > 1 &&
+				(party.getId() == SecureComparison.getAggregator(0) || party.getId() == SecureComparison.getAggregator(1)))
+			precompute();
+	}
+
+	/**
+	 * Fills the pools of the encrypted bits for a comparison (the l+1 bits of BITS and the bit of ZERO).
+	 */
+	public void precompute() {
+		PaillierPublicKey publicKey = party.getCryptoSystem().getPublicKey();
+		while (zeros.size() < bits + 2)
+			zeros.add(encrypt(publicKey, BigInteger.ZERO));
+		while (ones.size() < bits + 2)
+			ones.add(encrypt(publicKey, BigInteger.ONE));
+	}
+
+	/**
+	 * Starts refilling the pools in the background; the encryptions are added to the pools by awaitRefill.
+	 */
+	private void precomputeInBackground() {
+		final PaillierPublicKey publicKey = party.getCryptoSystem().getPublicKey();
+		final BigInteger[] zeroInputs = randomizerInputs(publicKey, bits + 2 - zeros.size());
+		final BigInteger[] oneInputs = randomizerInputs(publicKey, bits + 2 - ones.size());
+		refill = PaillierCryptoService.shared().submit(() -> {
+			long startTime = System.nanoTime();
+			try {
+				return new BigInteger[][] {
+					PaillierBatch.map(zeroInputs.length, i -> publicKey.Encryption(BigInteger.ZERO, zeroInputs[i])),
+					PaillierBatch.map(oneInputs.length, i -> publicKey.Encryption(BigInteger.ONE, oneInputs[i]))
+				};
+			}
+			finally {
+				refillNanos.addAndGet(System.nanoTime() - startTime);
+				refills.incrementAndGet();
+			}
+		});
+	}
+
+	/**
+	 * @return number of background refills of the pools (see precomputeInBackground)
+	 */
+	public long getRefills() {
+		return refills.get();
+	}
+
+	/**
+	 * @return total time (in nanoseconds) spent by the background workers on refilling the pools, which is not part of
+	 * the NCR of the aggregator
+	 */
+	public long getRefillNanos() {
+		return refillNanos.get();
+	}
+
+	/**
+	 * @return count random inputs of randomizers, drawn from the source of the agent
+	 */
+	private BigInteger[] randomizerInputs(PaillierPublicKey publicKey, int count) {
+		BigInteger[] inputs = new BigInteger[Math.max(count, 0)];
+		for (int i=0; i<inputs.length; i++)
+			inputs[i] = new BigInteger(publicKey.getBitLength(), party.getRandom());
+		return inputs;
+	}
+
+	/**
+	 * Waits for the background refill of the pools, if any, and adds its encryptions to the pools.
+	 */
+	private void awaitRefill() {
+		if (refill == null)
+			return;
+		BigInteger[][] encryptions = PaillierCryptoService.join(refill);
+		refill = null;
+		zeros.addAll(Arrays.asList(encryptions[0]));
+		ones.addAll(Arrays.asList(encryptions[1]));
+	}
+
+	@Override
+	public void compare(Consumer<Boolean> callback) {
+		if (party.getNumberOfParties() > 1 && aggregatorKey(party.getId()).n.bitLength() <= bits + STATISTICAL_BITS + 2)
+			throw new IllegalStateException("The modulus of the aggregator is too small for masking "+secretBits+"-bit secrets");
+		super.compare(callback);
+	}
+
+	@Override
+	protected void secretEncrypted(BigInteger encryptedSecret) {
+		PaillierPublicKey publicKey = aggregatorKey(party.getId());
+		rho = new BigInteger(bits + STATISTICAL_BITS, party.getRandom());
+		BigInteger offset = BigInteger.ONE.shiftLeft(bits).subtract(BigInteger.ONE).add(rho);
+		BigInteger masked = rerandomize(publicKey, publicKey.add(encryptedSecret, publicKey.gPow(offset)));
+		party.send(SecureComparison.getAggregator(party.getId()), compareId, MASKED, new BigInteger[] {masked});
+	}
+
+	@Override
+	protected void handleStep(int sender, int id, int step, BigInteger[] payload) {
+		switch (step) {
+		case MASKED:
+			handleMasked(sender, id, payload[0]);
+			break;
+		case BITS:
+			checkCurrent(id);
+			handleBits(payload);
+			break;
+		case DGK:
+			handleDgk(sender, id, payload);
+			break;
+		case ZERO:
+			checkCurrent(id);
+			handleZero(payload[0]);
+			break;
+		case UNMASK:
+			Paillier paillier = party.getCryptoSystem();
+			party.send(sender, id, RESULT, new BigInteger[] {paillier.DecryptionCRT(payload[0])});
+			precomputeInBackground();
+			break;
+		case RESULT:
+			checkCurrent(id);
+			finish(payload[0].testBit(0) ^ flipped);
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown step "+step);
+		}
+	}
+
+	/**
+	 * The aggregator sends E(H) and the encrypted bits of 2*alpha+1.
+	 */
+	private void handleMasked(int sender, int id, BigInteger masked) {
+		Paillier paillier = party.getCryptoSystem();
+		BigInteger value = paillier.DecryptionCRT(masked);
+		BigInteger alpha = value.subtract(value.shiftRight(bits).shiftLeft(bits)).shiftLeft(1).setBit(0);
+		BigInteger[] payload = new BigInteger[bits + 2];
+		payload[0] = encrypt(paillier.getPublicKey(), value.shiftRight(bits));
+		for (int i=0; i<=bits; i++)
+			payload[i + 1] = encryptedBit(alpha.testBit(i));
+		party.send(sender, id, BITS, payload);
+	}
+
+	/**
+	 * The initiator sends the blinded and shuffled encryptions of a_i - b_i + s + 3 * sum_{j>i} (a_j xor b_j).
+	 */
+	private void handleBits(BigInteger[] payload) {
+		PaillierPublicKey publicKey = aggregatorKey(party.getId());
+		encryptedHigh = payload[0];
+		negative = party.getRandom().nextBoolean();
+		BigInteger beta = rho.subtract(rho.shiftRight(bits).shiftLeft(bits)).shiftLeft(1);
+		BigInteger one = publicKey.gPow(BigInteger.ONE);
+		BigInteger xors = BigInteger.ONE; // E(0) with the randomizer 1, rerandomized with the results
+		BigInteger[] tests = new BigInteger[bits + 1];
+		for (int i=bits; i>=0; i--) {
+			BigInteger a = payload[i + 1];
+			int b = beta.testBit(i) ? 1 : 0;
+			BigInteger test = publicKey.add(publicKey.add(a, publicKey.gPow(BigInteger.valueOf((negative ? -1 : 1) - b))),
+					publicKey.multiply(xors, BigInteger.valueOf(3)));
+			tests[i] = rerandomize(publicKey, publicKey.multiply(test, blindingExponent(publicKey)));
+			/* a xor 1 = 1 - a */
+			xors = publicKey.add(xors, (b == 0) ? a : publicKey.add(one, a.modInverse(publicKey.nsquare)));
+		}
+		List<BigInteger> shuffled = Arrays.asList(tests);
+		Collections.shuffle(shuffled, party.getRandom());
+		party.send(SecureComparison.getAggregator(party.getId()), compareId, DGK, tests);
+	}
+
+	/**
+	 * The aggregator sends the encryption of whether one of the tests is 0.
+	 */
+	private void handleDgk(int sender, int id, BigInteger[] tests) {
+		Paillier paillier = party.getCryptoSystem();
+		boolean found = false;
+		for (BigInteger test : tests)
+			if (paillier.DecryptionCRT(test).signum() == 0)
+				found = true;
+		party.send(sender, id, ZERO, new BigInteger[] {encryptedBit(found)});
+	}
+
+	/**
+	 * The initiator sends the encryption of the bit l of z xor f.
+	 */
+	private void handleZero(BigInteger found) {
+		PaillierPublicKey publicKey = aggregatorKey(party.getId());
+		BigInteger one = publicKey.gPow(BigInteger.ONE);
+		/* with s = -1 a zero means alpha > beta, i.e., t = 1 - found (alpha != beta, since 2*alpha+1 != 2*beta) */
+		BigInteger carry = negative ? publicKey.add(one, found.modInverse(publicKey.nsquare)) : found;
+		BigInteger bit = publicKey.add(publicKey.add(encryptedHigh, publicKey.gPow(rho.shiftRight(bits).negate())),
+				carry.modInverse(publicKey.nsquare));
+		flipped = party.getRandom().nextBoolean();
+		if (flipped)
+			bit = publicKey.add(one, bit.modInverse(publicKey.nsquare));
+		party.send(SecureComparison.getAggregator(party.getId()), compareId, UNMASK, new BigInteger[] {rerandomize(publicKey, bit)});
+	}
+
+	/**
+	 * @return a random exponent in [1, n), which keeps 0 and maps the small nonzero tests to random values
+	 */
+	private BigInteger blindingExponent(PaillierPublicKey publicKey) {
+		BigInteger r;
+		do {
+			r = new BigInteger(publicKey.n.bitLength(), party.getRandom());
+		} while (r.signum() == 0 || r.compareTo(publicKey.n) >= 0);
+		return r;
+	}
+
+	/**
+	 * @return a precomputed encryption of the bit (or a new one if the pool is empty)
+	 */
+	private BigInteger encryptedBit(boolean bit) {
+		awaitRefill();
+		BigInteger c = (bit ? ones : zeros).poll();
+		return (c != null) ? c : encrypt(party.getCryptoSystem().getPublicKey(), bit ? BigInteger.ONE : BigInteger.ZERO);
+	}
+}
@@ -0,0 +1,117 @@
+package ext.sim.tools.privacy;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * Computes Paillier randomizers with short exponents over a fixed base: a random h is chosen once per key and
+ * hn = h^n mod n^2 is computed, after which every randomizer is hn^x mod n^2 = (h^x)^n mod n^2 for a fresh
+ * short random exponent x. Since the base is fixed, the powers hn^(j * 2^(w*i)) are precomputed into a table,
+ * and each randomizer costs only ceil(exponentBits/w) modular multiplications (no squarings). With 512 bits of
+ * modulus this measured about 1.1-1.2x faster than r.modPow(n, n^2) once warmed up (testRandomizerCosts in Paillier;
+ * the default table takes about 120KB and 3.5ms per key), so it pays off only for many encryptions per key.
+ * 
+ * Note that randomizers of the form (h^x)^n with a short x are not uniformly distributed over the n-th residues;
+ * their security relies on the hardness of the short-exponent discrete logarithm, so exponentBits should be at
+ * least twice the security level.
+ * 
+ * @author Tal Grinshpoun
+ *
+ */
+public class FixedBaseRandomizer implements PaillierRandomizer {
+	
+	public static final int DEFAULT_EXPONENT_BITS = 256;
+	public static final int DEFAULT_WINDOW = 4;
+	
+	private final BigInteger nsquare;
+	private final int exponentBits;
+	private final int window;
+	/**
+	 * table[i][j] = hn^(j * 2^(window*i)) mod n^2 for j in [0, 2^window).
+	 */
+	private final BigInteger[][] table;
+	/**
+	 * source of the random exponents
+	 */
+	private final Random random;
+	
+	/**
+	 * Chooses the fixed base and precomputes its table.
+	 * @param publicKey the public key
+	 * @param exponentBits number of bits of the short exponents
+	 * @param window number of exponent bits handled by each row of the table
+	 * @param random source of the fixed base and of the random exponents
+	 */
+	public FixedBaseRandomizer(PaillierPublicKey publicKey, int exponentBits, int window, Random random) {
+		if (window < 1 || window > 16)
+			throw new IllegalArgumentException("Window size must be in [1,16]");
+		this.nsquare = publicKey.nsquare;
+		this.exponentBits = exponentBits;
+		this.window = window;
+		this.random = random;
+		
+		BigInteger hn = new BigInteger(publicKey.getBitLength(), random).modPow(publicKey.n, nsquare);
+		int rows = (exponentBits + window - 1) / window;
+		table = new BigInteger[rows][1 << window];
+		BigInteger base = hn;
+		for (int i = 0; i < rows; i++) {
+			table[i][0] = BigInteger.ONE;
+			for (int j = 1; j < table[i].length; j++)
+				table[i][j] = table[i][j-1].multiply(base).mod(nsquare);
+			// base^(2^window) for the next row
+			base = table[i][table[i].length - 1].multiply(base).mod(nsquare);
+		}
+	}
+	
+	/**
+	 * Chooses the fixed base and precomputes its table with the default exponent size and window.
+	 * @param publicKey the public key
+	 * @param random source of the fixed base and of the random exponents
+	 */
+	public FixedBaseRandomizer(PaillierPublicKey publicKey, Random random) {
+		this(publicKey, DEFAULT_EXPONENT_BITS, DEFAULT_WINDOW, random);
+	}
+	
+
+	@Override
+	public BigInteger nextRandomizer() {
+		return power(new BigInteger(exponentBits, random));
+	}
+	
+	/**
+	 * Computes hn^x mod n^2 using the precomputed table.
+	 * @param x a nonnegative exponent of at most exponentBits bits
+	 * @return hn^x mod n^2
+	 */
+	public BigInteger power(BigInteger x) {
+		if (x.signum() < 0 || x.bitLength() > exponentBits)
+			throw new IllegalArgumentException("Exponent must be nonnegative and of at most " + exponentBits + " bits");
+		BigInteger result = BigInteger.ONE;
+		for (int i = 0; i < table.length; i++) {
+			int digit = 0;
+			for (int b = window - 1; b >= 0; b--)
+				digit = (digit << 1) | (x.testBit(i * window + b) ? 1 : 0);
+			if (digit != 0)
+				result = result.multiply(table[i][digit]).mod(nsquare);
+		}
+		return result;
+	}
+	
+	/**
+	 * @return the number of bits of the short exponents
+	 */
+	public int getExponentBits() {
+		return exponentBits;
+	}
+	
+	/**
+	 * @return the memory footprint (in bytes) of the magnitudes of the precomputed table
+	 */
+	public long getTableBytes() {
+		long bytes = 0;
+		for (BigInteger[] row : table)
+			for (BigInteger entry : row)
+				bytes += (entry.bitLength() + 7) / 8;
+		return bytes;
+	}
+}
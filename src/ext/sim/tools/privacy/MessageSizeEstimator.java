@@ -0,0 +1,105 @@
+package ext.sim.tools.privacy;
+
+import java.math.BigInteger;
+
+import bgu.dcr.az.api.tools.Assignment;
+
+/**
+ * Estimates the number of bytes that a message would take on the wire, by the sizes of the encodings of its arguments
+ * (instead of the constant BIG_INT_SIZE per encrypted value of the network load computation in the README):
+ * - a BigInteger of more bits than the modulus n is a ciphertext, and it is encoded by the CiphertextCodec of n^2;
+ *   any other BigInteger (a plaintext, a share or a random mask) is encoded by the CiphertextCodec of n;
+ * - a BigInteger[] is a vector of the CiphertextCodec (a single header and fixed-width values);
+ * - a PaillierPublicKey is n and g (PaillierPublicKey.getSizeInBytes());
+ * - an Assignment is the number of assigned variables and a (variable, value) pair of ints per assigned variable;
+ * - the primitive types by their Java sizes.
+ * Every message also has the fixed MIN_MSG_SIZE bytes of the minimal IP header.
+ *
+ * @author Tal Grinshpoun
+ *
+ */
+public class MessageSizeEstimator {
+
+	/**
+	 * the minimal IP header
+	 */
+	public static final int MIN_MSG_SIZE = 20;
+	/**
+	 * a (variable, value) pair of ints
+	 */
+	public static final int ASSIGNMENT_SIZE = 8;
+
+	private final int modulusBits;
+	private final CiphertextCodec plaintextCodec, ciphertextCodec;
+
+	/**
+	 * @param modulusBits number of bits of the Paillier modulus n of the agents
+	 */
+	public MessageSizeEstimator(int modulusBits) {
+		this.modulusBits = modulusBits;
+		this.plaintextCodec = new CiphertextCodec(modulusBits);
+		this.ciphertextCodec = new CiphertextCodec(2 * modulusBits);
+	}
+
+	/**
+	 * @return the codec of the ciphertexts (modulo n^2)
+	 */
+	public CiphertextCodec getCiphertextCodec() {
+		return ciphertextCodec;
+	}
+
+	/**
+	 * @param args the arguments of a message
+	 * @return the number of bytes of the message
+	 */
+	public long sizeOf(Object[] args) {
+		long size = MIN_MSG_SIZE;
+		if (args != null)
+			for (Object arg : args)
+				size += sizeOfArgument(arg);
+		return size;
+	}
+
+	/**
+	 * @return the number of bytes of the encoding of a single argument of a message
+	 */
+	public long sizeOfArgument(Object arg) {
+		if (arg == null)
+			return 0;
+		if (arg instanceof BigInteger)
+			return codecOf((BigInteger) arg).getWidth();
+		if (arg instanceof BigInteger[]) {
+			BigInteger[] vector = (BigInteger[]) arg;
+			CiphertextCodec codec = plaintextCodec;
+			for (BigInteger value : vector)
+				if (value != null && codecOf(value) == ciphertextCodec)
+					codec = ciphertextCodec;
+			return codec.encodedSize(vector.length);
+		}
+		if (arg instanceof PaillierPublicKey)
+			return ((PaillierPublicKey) arg).getSizeInBytes();
+		if (arg instanceof Assignment)
+			return 4 + ASSIGNMENT_SIZE * ((Assignment) arg).assignedVariables().size();
+		if (arg instanceof Integer || arg instanceof Float)
+			return 4;
+		if (arg instanceof Long || arg instanceof Double)
+			return 8;
+		if (arg instanceof Short || arg instanceof Character)
+			return 2;
+		if (arg instanceof Boolean || arg instanceof Byte)
+			return 1;
+		if (arg instanceof int[])
+			return 4 + 4 * ((int[]) arg).length;
+		if (arg instanceof Object[]) {
+			long size = 4;
+			for (Object element : (Object[]) arg)
+				size += sizeOfArgument(element);
+			return size;
+		}
+		throw new IllegalArgumentException("Cannot estimate the size of "+arg.getClass().getName());
+	}
+
+	private CiphertextCodec codecOf(BigInteger value) {
+		return (value.bitLength() > modulusBits) ? ciphertextCodec : plaintextCodec;
+	}
+}
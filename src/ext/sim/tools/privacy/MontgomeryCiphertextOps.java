@@ -0,0 +1,257 @@
+package ext.sim.tools.privacy;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * CiphertextOps with Montgomery arithmetic on mutable arrays of 32-bit limbs (little-endian) for a fixed odd modulus N.
+ * A value x is kept in the Montgomery domain as x*R mod N with R = 2^(32k), where k is the number of limbs of N,
+ * so that a modular multiplication is a single pass of CIOS (coarsely integrated operand scanning) without division.
+ * All the intermediate values of an operation live in scratch buffers that are reused by the same thread
+ * (a ThreadLocal per modulus), so only the BigInteger of the result is allocated. This is used for the single short
+ * operations (multiplications and powers with small exponents). The limb loop is slower than the intrinsics of
+ * BigInteger for the long chains, so exponentiations with long exponents (e.g., r^n) are delegated to
+ * BigInteger.modPow, and products and dot products to MultiExponentiation, as in BigIntegerCiphertextOps: with
+ * 512 bits of modulus and 20 values, the limb dot product measured 154-171us against 96-136us for MultiExponentiation
+ * (and 493us against 248us in the repository benchmark), and the limb product 59-61us against 25us.
+ * Thus MONTGOMERY no longer reduces the allocations of the dot products (and of Y_t): testCiphertextOps measures about
+ * 182KB allocated per 20-term dot product on both backends. It allocates less only for the single operations: about
+ * 600 bytes against 1.2KB per multiplication, and 470 bytes against 2.3KB per power with a 7-bit exponent.
+ *
+ * @author Tal Grinshpoun
+ *
+ */
+public class MontgomeryCiphertextOps implements CiphertextOps {
+
+	private static final long MASK = 0xffffffffL;
+	/**
+	 * exponents longer than this (in bits) are delegated to BigInteger.modPow
+	 */
+	public static final int MODPOW_THRESHOLD = 64;
+
+	private final BigInteger modulus;
+	private final int k;
+	private final int[] n;
+	/**
+	 * -N^(-1) mod 2^32
+	 */
+	private final int nInv;
+	/**
+	 * R^2 mod N and 1, as limbs (for converting into and out of the Montgomery domain)
+	 */
+	private final int[] r2, one;
+
+	private final ThreadLocal<Scratch> scratch;
+
+	/**
+	 * The reusable buffers of a thread.
+	 */
+	private static class Scratch {
+		final int[] t, acc, x;
+		int[][] table = new int[0][];
+
+		Scratch(int k) {
+			t = new int[k+2];
+			acc = new int[k];
+			x = new int[k];
+		}
+
+		/**
+		 * @return a table of at least size buffers of k limbs
+		 */
+		int[][] table(int size, int k) {
+			if (table.length < size) {
+				int[][] grown = Arrays.copyOf(table, Math.max(size, 2 * table.length));
+				for (int i=table.length; i<grown.length; i++)
+					grown[i] = new int[k];
+				table = grown;
+			}
+			return table;
+		}
+	}
+
+	/**
+	 * Precomputes the constants of the modulus.
+	 * @param modulus an odd modulus
+	 * @throws IllegalArgumentException if the modulus is even
+	 */
+	public MontgomeryCiphertextOps(BigInteger modulus) {
+		if (!modulus.testBit(0))
+			throw new IllegalArgumentException("The modulus must be odd");
+		this.modulus = modulus;
+		this.k = (modulus.bitLength() + 31) / 32;
+		this.n = toLimbs(modulus, new int[k]);
+		/* Newton's iteration doubles the number of correct low bits of the inverse: 1 (since n is odd) -> 32 */
+		int inv = n[0];
+		for (int i=0; i<5; i++)
+			inv *= 2 - n[0] * inv;
+		this.nInv = -inv;
+		this.r2 = toLimbs(BigInteger.ONE.shiftLeft(64 * k).mod(modulus), new int[k]);
+		this.one = new int[k];
+		one[0] = 1;
+		final int limbs = k;
+		this.scratch = ThreadLocal.withInitial(() -> new Scratch(limbs));
+	}
+
+	@Override
+	public BigInteger getModulus() {
+		return modulus;
+	}
+
+	@Override
+	public Backend getBackend() {
+		return Backend.MONTGOMERY;
+	}
+
+	@Override
+	public BigInteger multiply(BigInteger a, BigInteger b) {
+		Scratch s = scratch.get();
+		/* (a*R) * b * R^(-1) = a*b */
+		toMontgomery(a, s.acc, s);
+		toLimbs(b, s.x);
+		montMul(s.acc, s.x, s.acc, s.t);
+		return fromLimbs(s.acc);
+	}
+
+	@Override
+	public BigInteger pow(BigInteger base, BigInteger exponent) {
+		/* For long exponents the intrinsic Montgomery multiplication of BigInteger.modPow is several times faster than the
+		 * limb loop, and the few temporary arrays of a single modPow are negligible next to its running time */
+		if (exponent.bitLength() > MODPOW_THRESHOLD)
+			return base.modPow(exponent, modulus);
+		if (exponent.signum() < 0)
+			throw new IllegalArgumentException("Negative exponent "+exponent);
+		if (exponent.signum() == 0)
+			return BigInteger.ONE.mod(modulus);
+		return montPow(base, exponent);
+	}
+
+	@Override
+	public BigInteger product(BigInteger[] values) {
+		return MultiExponentiation.product(values, modulus);
+	}
+
+	@Override
+	public BigInteger dotProduct(BigInteger[] bases, BigInteger[] exponents) {
+		return MultiExponentiation.straus(bases, exponents, modulus);
+	}
+
+	/**
+	 * Windowed exponentiation in the Montgomery domain.
+	 * @return base^exponent mod N, for a positive exponent
+	 */
+	private BigInteger montPow(BigInteger base, BigInteger exponent) {
+		Scratch s = scratch.get();
+		int bits = exponent.bitLength();
+		int w = MultiExponentiation.window(bits);
+		int size = 1 << w;
+		/* table[j] = base^j * R mod N for 1 <= j < 2^w */
+		int[][] table = s.table(size, k);
+		toMontgomery(base, table[1], s);
+		for (int j=2; j<size; j++)
+			montMul(table[j-1], table[1], table[j], s.t);
+
+		/* acc = R mod N, i.e., 1 in the Montgomery domain */
+		montMul(r2, one, s.acc, s.t);
+		int windows = (bits + w - 1) / w;
+		for (int win=windows-1; win>=0; win--) {
+			if (win < windows-1)
+				for (int b=0; b<w; b++)
+					montMul(s.acc, s.acc, s.acc, s.t);
+			int digit = MultiExponentiation.digit(exponent, win*w, w);
+			if (digit != 0)
+				montMul(s.acc, table[digit], s.acc, s.t);
+		}
+		montMul(s.acc, one, s.acc, s.t);
+		return fromLimbs(s.acc);
+	}
+
+	/**
+	 * Converts x (reduced modulo N) into the Montgomery domain: out = x*R mod N.
+	 */
+	private void toMontgomery(BigInteger x, int[] out, Scratch s) {
+		toLimbs(x.signum() < 0 || x.compareTo(modulus) >= 0 ? x.mod(modulus) : x, s.x);
+		montMul(s.x, r2, out, s.t);
+	}
+
+	/**
+	 * CIOS Montgomery multiplication: out = a*b*R^(-1) mod N, for a, b < N. out may be a or b; t is a buffer of k+2 limbs.
+	 */
+	private void montMul(int[] a, int[] b, int[] out, int[] t) {
+		Arrays.fill(t, 0);
+		for (int i=0; i<k; i++) {
+			long ai = a[i] & MASK;
+			long carry = 0;
+			for (int j=0; j<k; j++) {
+				long sum = (t[j] & MASK) + ai * (b[j] & MASK) + carry;
+				t[j] = (int) sum;
+				carry = sum >>> 32;
+			}
+			long sum = (t[k] & MASK) + carry;
+			t[k] = (int) sum;
+			t[k+1] = (int) (sum >>> 32);
+
+			long m = (t[0] * nInv) & MASK;
+			sum = (t[0] & MASK) + m * (n[0] & MASK);
+			carry = sum >>> 32;
+			for (int j=1; j<k; j++) {
+				sum = (t[j] & MASK) + m * (n[j] & MASK) + carry;
+				t[j-1] = (int) sum;
+				carry = sum >>> 32;
+			}
+			sum = (t[k] & MASK) + carry;
+			t[k-1] = (int) sum;
+			t[k] = (int) ((t[k+1] & MASK) + (sum >>> 32));
+		}
+		/* t < 2N, subtract N once if needed */
+		if (t[k] != 0 || compare(t, n) >= 0) {
+			long borrow = 0;
+			for (int j=0; j<k; j++) {
+				long diff = (t[j] & MASK) - (n[j] & MASK) - borrow;
+				out[j] = (int) diff;
+				borrow = (diff >>> 63);
+			}
+		}
+		else
+			System.arraycopy(t, 0, out, 0, k);
+	}
+
+	/**
+	 * Compares the k low limbs of a and b as unsigned numbers.
+	 */
+	private int compare(int[] a, int[] b) {
+		for (int j=k-1; j>=0; j--) {
+			if (a[j] != b[j])
+				return Integer.compareUnsigned(a[j], b[j]);
+		}
+		return 0;
+	}
+
+	/**
+	 * Writes a non-negative x < 2^(32k) into k little-endian limbs.
+	 */
+	private int[] toLimbs(BigInteger x, int[] out) {
+		Arrays.fill(out, 0, k, 0);
+		byte[] bytes = x.toByteArray();
+		for (int i=0; i<bytes.length; i++) {
+			int limb = i / 4;
+			if (limb >= k)
+				break;
+			out[limb] |= (bytes[bytes.length - 1 - i] & 0xff) << (8 * (i % 4));
+		}
+		return out;
+	}
+
+	private BigInteger fromLimbs(int[] limbs) {
+		byte[] bytes = new byte[4 * k];
+		for (int j=0; j<k; j++) {
+			int limb = limbs[j];
+			int pos = bytes.length - 4 * j;
+			bytes[pos - 1] = (byte) limb;
+			bytes[pos - 2] = (byte) (limb >>> 8);
+			bytes[pos - 3] = (byte) (limb >>> 16);
+			bytes[pos - 4] = (byte) (limb >>> 24);
+		}
+		return new BigInteger(1, bytes);
+	}
+}
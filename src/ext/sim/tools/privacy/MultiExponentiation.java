@@ -0,0 +1,137 @@
+package ext.sim.tools.privacy;
+
+import java.math.BigInteger;
+
+/**
+ * Computes products of powers b_1^e_1 * ... * b_d^e_d mod m with Straus' interleaved windowed exponentiation
+ * (also known as Shamir's trick): all the exponents are scanned together from the most significant window,
+ * so the squarings are shared by all the bases. The cost is about max(bitLength(e_i)) squarings plus
+ * d*(2^w + bitLength/w) multiplications, instead of d full exponentiations.
+ * The multiplications are reduced with Barrett's method, which is about twice as fast as BigInteger.mod for moduli
+ * of the size of n^2 (BigInteger.modPow is faster per multiplication, but it has to be called for every base).
+ * With Paillier ciphertexts, this is the encrypted dot product prod E(m_i)^e_i = E(sum m_i*e_i).
+ *
+ * @author Tal Grinshpoun
+ *
+ */
+public final class MultiExponentiation {
+
+	public static final int MAX_WINDOW = 6;
+
+	private MultiExponentiation() {
+	}
+
+	/**
+	 * Computes prod bases[i]^exponents[i] mod modulus.
+	 * @param bases the bases (in [0, modulus))
+	 * @param exponents non-negative exponents, one for every base
+	 * @param modulus the modulus
+	 * @return the product of the powers
+	 * @throws IllegalArgumentException if the arrays have different lengths or an exponent is negative
+	 */
+	public static BigInteger straus(BigInteger[] bases, BigInteger[] exponents, BigInteger modulus) {
+		if (bases.length != exponents.length)
+			throw new IllegalArgumentException("Got "+bases.length+" bases but "+exponents.length+" exponents");
+		int maxBits = 0;
+		for (BigInteger e : exponents) {
+			if (e.signum() < 0)
+				throw new IllegalArgumentException("Negative exponent "+e);
+			maxBits = Math.max(maxBits, e.bitLength());
+		}
+		if (maxBits == 0)
+			return BigInteger.ONE.mod(modulus);
+		int w = window(maxBits);
+		Barrett barrett = new Barrett(modulus);
+
+		/* table[i][j] = bases[i]^j for 1 <= j < 2^w */
+		BigInteger[][] table = new BigInteger[bases.length][];
+		for (int i=0; i<bases.length; i++) {
+			if (exponents[i].signum() == 0)
+				continue;
+			table[i] = new BigInteger[1 << w];
+			table[i][1] = bases[i].mod(modulus);
+			for (int j=2; j<table[i].length; j++)
+				table[i][j] = barrett.multiply(table[i][j-1], table[i][1]);
+		}
+
+		BigInteger result = BigInteger.ONE;
+		int windows = (maxBits + w - 1) / w;
+		for (int k=windows-1; k>=0; k--) {
+			if (k < windows-1)
+				for (int s=0; s<w; s++)
+					result = barrett.multiply(result, result);
+			for (int i=0; i<bases.length; i++) {
+				if (table[i] == null)
+					continue;
+				int digit = digit(exponents[i], k*w, w);
+				if (digit != 0)
+					result = barrett.multiply(result, table[i][digit]);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Computes prod values[i] mod modulus.
+	 * @param values the factors (in [0, modulus))
+	 * @param modulus the modulus
+	 * @return the product
+	 */
+	public static BigInteger product(BigInteger[] values, BigInteger modulus) {
+		Barrett barrett = new Barrett(modulus);
+		BigInteger result = BigInteger.ONE.mod(modulus);
+		for (BigInteger v : values)
+			result = barrett.multiply(result, v);
+		return result;
+	}
+
+	/**
+	 * Chooses the window width that minimizes the multiplications per base: 2^w-2 for the table plus bits/w for the scan.
+	 */
+	static int window(int bits) {
+		int best = 1;
+		double bestCost = Double.MAX_VALUE;
+		for (int w=1; w<=MAX_WINDOW; w++) {
+			double cost = (1 << w) - 2 + (double) bits / w;
+			if (cost < bestCost) {
+				bestCost = cost;
+				best = w;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return the w bits of e starting at bit position from
+	 */
+	static int digit(BigInteger e, int from, int w) {
+		int digit = 0;
+		for (int b=w-1; b>=0; b--)
+			digit = (digit << 1) | (e.testBit(from + b) ? 1 : 0);
+		return digit;
+	}
+
+	/**
+	 * Barrett reduction modulo a fixed modulus m of k bits: for 0 <= x < m^2, q = ((x >> (k-1)) * mu) >> (k+1)
+	 * with mu = floor(4^k / m) underestimates floor(x / m) by at most 2, so x - q*m needs at most two corrections.
+	 */
+	static class Barrett {
+		private final BigInteger modulus, mu;
+		private final int k;
+
+		Barrett(BigInteger modulus) {
+			this.modulus = modulus;
+			this.k = modulus.bitLength();
+			this.mu = BigInteger.ONE.shiftLeft(2*k).divide(modulus);
+		}
+
+		BigInteger multiply(BigInteger a, BigInteger b) {
+			BigInteger x = a.multiply(b);
+			BigInteger q = x.shiftRight(k-1).multiply(mu).shiftRight(k+1);
+			x = x.subtract(q.multiply(modulus));
+			while (x.compareTo(modulus) >= 0)
+				x = x.subtract(modulus);
+			return x;
+		}
+	}
+}
@@ -16,6 +16,7 @@ package ext.sim.tools.privacy;
 
 import java.math.*;
 import java.util.*;
+import java.util.function.Supplier;
 
 /**
  * Paillier Cryptosystem <br><br>
@@ -31,26 +32,45 @@ import java.util.*;
 public class Paillier {
 
     /**
-     * p and q are two large primes. 
-     * lambda = lcm(p-1, q-1) = (p-1)*(q-1)/gcd(p-1, q-1).
+     * The ways in which a fresh randomizer r^n mod n^2 is computed:
+     * STANDARD - r.modPow(n, n^2);
+     * FIXED_BASE - short exponent over a fixed base h^n with a precomputed table (see FixedBaseRandomizer); measured
+     *              about 1.1-1.2x faster than STANDARD with 512 bits of modulus (testRandomizerCosts), but the randomizers
+     *              are not uniformly distributed over the n-th residues.
      */
-    private BigInteger p,  q,  lambda;
+    public enum RandomizerMode { STANDARD, FIXED_BASE };
+
     /**
-     * n = p*q, where p and q are two large primes.
+     * The public key (n, n^2, g) and the private key (p, q, lambda and the decryption constants).
+     * Only the public key should be sent to other agents.
      */
-    public BigInteger n;
+    private PaillierPublicKey publicKey;
+    private PaillierPrivateKey privateKey;
     /**
-     * nsquare = n*n
+     * n = p*q, where p and q are two large primes (the same as publicKey.n).
      */
-    public BigInteger nsquare;
+    public BigInteger n;
     /**
-     * a random integer in Z*_{n^2} where gcd (L(g^lambda mod n^2), n) = 1.
+     * nsquare = n*n (the same as publicKey.nsquare)
      */
-    private BigInteger g;
+    public BigInteger nsquare;
     /**
      * number of bits of modulus
      */
     private int bitLength;
+    /**
+     * source of precomputed randomizers r^n mod n^2 used by Encryption(m), or null to compute a fresh randomizer for every encryption.
+     */
+    private PaillierRandomizer randomizer;
+    /**
+     * the way in which newRandomizer() computes r^n mod n^2, and the corresponding precomputed tables (null for STANDARD).
+     */
+    private RandomizerMode randomizerMode = RandomizerMode.STANDARD;
+    private PaillierRandomizer randomizerTables;
+    /**
+     * source of the random primes and of the random inputs of the encryptions (see RandomnessProvider).
+     */
+    private Random random = new Random();
 
     /**
      * Constructs an instance of the Paillier cryptosystem.
@@ -61,6 +81,50 @@ public class Paillier {
         KeyGeneration(bitLengthVal, certainty);
     }
 
+    /**
+     * Constructs an instance of the Paillier cryptosystem.
+     * @param bitLengthVal number of bits of modulus
+     * @param certainty The probability that the new BigInteger represents a prime number will exceed (1 - 2^(-certainty)). The execution time of this constructor is proportional to the value of this parameter.
+     * @param simpleGenerator if true then g = n+1 (fast encryption), otherwise g = 2 (as in the published experiments)
+     */
+    public Paillier(int bitLengthVal, int certainty, boolean simpleGenerator) {
+        KeyGeneration(bitLengthVal, certainty, simpleGenerator);
+    }
+
+    /**
+     * Constructs an instance of the Paillier cryptosystem that draws all its random numbers from a given source.
+     * @param bitLengthVal number of bits of modulus
+     * @param certainty The probability that the new BigInteger represents a prime number will exceed (1 - 2^(-certainty)). The execution time of this constructor is proportional to the value of this parameter.
+     * @param simpleGenerator if true then g = n+1 (fast encryption), otherwise g = 2 (as in the published experiments)
+     * @param randomVal source of the random primes and of the random inputs of the encryptions (e.g., from a RandomnessProvider)
+     */
+    public Paillier(int bitLengthVal, int certainty, boolean simpleGenerator, Random randomVal) {
+        this(bitLengthVal, certainty, simpleGenerator, randomVal, false);
+    }
+
+    /**
+     * Constructs an instance of the Paillier cryptosystem that draws all its random numbers from a given source.
+     * @param bitLengthVal number of bits of modulus
+     * @param certainty The probability that the new BigInteger represents a prime number will exceed (1 - 2^(-certainty)). The execution time of this constructor is proportional to the value of this parameter.
+     * @param simpleGenerator if true then g = n+1 (fast encryption), otherwise g = 2 (as in the published experiments)
+     * @param randomVal source of the random primes and of the random inputs of the encryptions (e.g., from a RandomnessProvider)
+     * @param sievePrimes if true then the primes are generated by SievePrimeGenerator, otherwise by the BigInteger constructor
+     */
+    public Paillier(int bitLengthVal, int certainty, boolean simpleGenerator, Random randomVal, boolean sievePrimes) {
+        random = randomVal;
+        KeyGeneration(bitLengthVal, certainty, simpleGenerator, sievePrimes);
+    }
+
+    /**
+     * Constructs an instance of the Paillier cryptosystem from two given primes (e.g., primes that were generated in advance).
+     * @param pVal first prime
+     * @param qVal second prime (different from the first one)
+     * @param simpleGenerator if true then g = n+1 (fast encryption), otherwise g = 2 (as in the published experiments)
+     */
+    public Paillier(BigInteger pVal, BigInteger qVal, boolean simpleGenerator) {
+        KeySetup(pVal, qVal, simpleGenerator);
+    }
+
     /**
      * Constructs an instance of the Paillier cryptosystem with 512 bits of modulus and at least 1-2^(-64) certainty of primes generation.
      */
@@ -74,24 +138,76 @@ public class Paillier {
      * @param certainty The probability that the new BigInteger represents a prime number will exceed (1 - 2^(-certainty)). The execution time of this constructor is proportional to the value of this parameter.
      */
     public void KeyGeneration(int bitLengthVal, int certainty) {
-        bitLength = bitLengthVal;
-        /*Constructs two randomly generated positive BigIntegers that are probably prime, with the specified bitLength and certainty.*/
-        p = new BigInteger(bitLength / 2, certainty, new Random());
-        q = new BigInteger(bitLength / 2, certainty, new Random());
-
-        n = p.multiply(q);
-        nsquare = n.multiply(n);
-
-        g = new BigInteger("2");
-        lambda = p.subtract(BigInteger.ONE).multiply(q.subtract(BigInteger.ONE)).divide(
-                p.subtract(BigInteger.ONE).gcd(q.subtract(BigInteger.ONE)));
-        /* check whether g is good.*/
-        if (g.modPow(lambda, nsquare).subtract(BigInteger.ONE).divide(n).gcd(n).intValue() != 1) {
-            System.out.println("g is not good. Choose g again.");
-            System.exit(1);
+        KeyGeneration(bitLengthVal, certainty, false);
+    }
+
+    /**
+     * Sets up the public key and private key. New primes are chosen until g is good.
+     * @param bitLengthVal number of bits of modulus.
+     * @param certainty The probability that the new BigInteger represents a prime number will exceed (1 - 2^(-certainty)). The execution time of this constructor is proportional to the value of this parameter.
+     * @param simpleGeneratorVal if true then g = n+1, otherwise g = 2.
+     */
+    public void KeyGeneration(int bitLengthVal, int certainty, boolean simpleGeneratorVal) {
+        KeyGeneration(bitLengthVal, certainty, simpleGeneratorVal, false);
+    }
+
+    /**
+     * Sets up the public key and private key. New primes are chosen until g is good.
+     * The BigInteger constructor is the default source of the primes, since SievePrimeGenerator is not faster on a single
+     * core (see testPrimeGeneration); the sieve only searches the two primes concurrently.
+     * @param bitLengthVal number of bits of modulus.
+     * @param certainty The probability that the new BigInteger represents a prime number will exceed (1 - 2^(-certainty)). The execution time of this constructor is proportional to the value of this parameter.
+     * @param simpleGeneratorVal if true then g = n+1, otherwise g = 2.
+     * @param sievePrimes if true then the primes are generated by SievePrimeGenerator, otherwise by the BigInteger constructor
+     */
+    public void KeyGeneration(int bitLengthVal, int certainty, boolean simpleGeneratorVal, boolean sievePrimes) {
+        SievePrimeGenerator primes = sievePrimes ? new SievePrimeGenerator(certainty) : null;
+        while (true) {
+            BigInteger pVal, qVal;
+            if (primes != null) {
+                /*Generates two different random probable primes with the specified bitLength and certainty (searched concurrently).*/
+                BigInteger[] pq = primes.nextPrimePair(bitLengthVal / 2, random);
+                pVal = pq[0];
+                qVal = pq[1];
+            }
+            else {
+                /*Constructs two randomly generated positive BigIntegers that are probably prime, with the specified bitLength and certainty.*/
+                pVal = new BigInteger(bitLengthVal / 2, certainty, random);
+                qVal = new BigInteger(bitLengthVal / 2, certainty, random);
+            }
+            try {
+                KeySetup(pVal, qVal, simpleGeneratorVal, bitLengthVal);
+                return;
+            } catch (IllegalArgumentException e) {
+                /* g is not good (or p = q), choose the primes again */
+            }
         }
     }
 
+    /**
+     * Sets up the public key and private key from two given primes.
+     * @param pVal first prime
+     * @param qVal second prime (different from the first one)
+     * @param simpleGeneratorVal if true then g = n+1, otherwise g = 2.
+     * @throws IllegalArgumentException if the primes are equal or g is not good for them
+     */
+    public void KeySetup(BigInteger pVal, BigInteger qVal, boolean simpleGeneratorVal) {
+        KeySetup(pVal, qVal, simpleGeneratorVal, pVal.bitLength() + qVal.bitLength());
+    }
+
+    private void KeySetup(BigInteger pVal, BigInteger qVal, boolean simpleGeneratorVal, int bitLengthVal) {
+        if (pVal.equals(qVal))
+            throw new IllegalArgumentException("The two primes must be different");
+        PaillierPublicKey publicKeyVal = new PaillierPublicKey(pVal.multiply(qVal), simpleGeneratorVal, bitLengthVal);
+        privateKey = new PaillierPrivateKey(pVal, qVal, publicKeyVal);
+        publicKey = publicKeyVal;
+        bitLength = bitLengthVal;
+        n = publicKey.n;
+        nsquare = publicKey.nsquare;
+        if (randomizerMode != RandomizerMode.STANDARD)
+            setRandomizerMode(randomizerMode);
+    }
+
     /**
      * Encrypts plaintext m. ciphertext c = g^m * r^n mod n^2. This function explicitly requires random input r to help with encryption.
      * @param m plaintext as a BigInteger
@@ -99,7 +215,7 @@ public class Paillier {
      * @return ciphertext as a BigInteger
      */
     public BigInteger Encryption(BigInteger m, BigInteger r) {
-        return g.modPow(m, nsquare).multiply(r.modPow(n, nsquare)).mod(nsquare);
+        return publicKey.Encryption(m, r);
     }
 
     /**
@@ -108,9 +224,132 @@ public class Paillier {
      * @return ciphertext as a BigInteger
      */
     public BigInteger Encryption(BigInteger m) {
-        BigInteger r = new BigInteger(bitLength, new Random());
-        return g.modPow(m, nsquare).multiply(r.modPow(n, nsquare)).mod(nsquare);
+        return publicKey.EncryptionWithRandomizer(m, nextRandomizer());
+    }
+
+    /**
+     * @return a randomizer from the randomizer pool if one is set, otherwise a fresh one
+     */
+    private BigInteger nextRandomizer() {
+        return (randomizer != null) ? randomizer.nextRandomizer() : newRandomizer();
+    }
+
+    /**
+     * Computes a fresh randomizer r^n mod n^2 for a random r. This is the plaintext-independent (and expensive) part of the encryption.
+     * @return the randomizer as a BigInteger
+     */
+    public BigInteger newRandomizer() {
+        return randomizerOf(nextRandomizerInput());
+    }
+
+    /**
+     * @return the random input of a randomizer (r, or the short exponent x in the FIXED_BASE mode), drawn from the source of the cryptosystem
+     */
+    private BigInteger nextRandomizerInput() {
+        if (randomizerTables instanceof FixedBaseRandomizer)
+            return new BigInteger(((FixedBaseRandomizer) randomizerTables).getExponentBits(), random);
+        return new BigInteger(bitLength, random);
+    }
+
+    /**
+     * @return the randomizer of a random input (see nextRandomizerInput), computed as in the randomizer mode
+     */
+    private BigInteger randomizerOf(BigInteger input) {
+        if (randomizerTables instanceof FixedBaseRandomizer)
+            return ((FixedBaseRandomizer) randomizerTables).power(input);
+        return publicKey.randomizerOf(input);
+    }
+
+    /**
+     * Takes count randomizers as in Encryption(m), for computing them later, maybe in another thread (e.g., on a worker
+     * pool of PaillierCryptoService). The random inputs are drawn from the source of the cryptosystem in the calling
+     * thread, so the randomizers depend only on the state of the source, and only the modular exponentiations are left
+     * for the supplier, which computes them in parallel (see PaillierBatch).
+     * If a randomizer pool is set, the randomizers are taken from it in the calling thread instead.
+     * @param count number of randomizers
+     * @return the supplier of the randomizers (which may be called once, in any thread)
+     */
+    public Supplier<BigInteger[]> prepareRandomizers(int count) {
+        if (randomizer != null) {
+            final BigInteger[] rn = new BigInteger[count];
+            for (int i=0; i<count; i++)
+                rn[i] = randomizer.nextRandomizer();
+            return () -> rn;
+        }
+        final BigInteger[] inputs = new BigInteger[count];
+        for (int i=0; i<count; i++)
+            inputs[i] = nextRandomizerInput();
+        return () -> PaillierBatch.map(inputs.length, i -> randomizerOf(inputs[i]));
+    }
+
+    /**
+     * Sets the way in which newRandomizer() computes r^n mod n^2, and precomputes the tables of the chosen mode.
+     * @param mode the randomizer mode
+     */
+    public void setRandomizerMode(RandomizerMode mode) {
+        randomizerMode = mode;
+        switch (mode) {
+        case FIXED_BASE:
+            randomizerTables = new FixedBaseRandomizer(publicKey, random);
+            break;
+        default:
+            randomizerTables = null;
+        }
+    }
+
+    /**
+     * @return the way in which newRandomizer() computes r^n mod n^2
+     */
+    public RandomizerMode getRandomizerMode() {
+        return randomizerMode;
+    }
+
+    /**
+     * @return the memory footprint (in bytes) of the precomputed tables of the randomizer mode
+     */
+    public long getRandomizerTableBytes() {
+        if (randomizerTables instanceof FixedBaseRandomizer)
+            return ((FixedBaseRandomizer) randomizerTables).getTableBytes();
+        return 0;
+    }
+
+    /**
+     * @return number of bits of modulus
+     */
+    public int getBitLength() {
+        return bitLength;
+    }
+
+    /**
+     * Sets the arithmetic backend of the encryption and the homomorphic operations (see CiphertextOps).
+     * Should be called before setRandomizerMode, since the randomizer tables are built over the public key.
+     * @param backend the backend
+     */
+    public void setCiphertextBackend(CiphertextOps.Backend backend) {
+        publicKey = publicKey.withBackend(backend);
+    }
+
+    /**
+     * Sets the source of the random inputs of the encryptions (it is also used by the tables of the randomizer mode that is set afterwards).
+     * @param randomVal the source, which must be safe for concurrent use if a randomizer pool or the batch operations are used
+     */
+    public void setRandom(Random randomVal) {
+        random = randomVal;
+    }
+
+    /**
+     * @return the source of the random inputs of the encryptions
+     */
+    public Random getRandom() {
+        return random;
+    }
 
+    /**
+     * Sets the source of randomizers used by Encryption(m), e.g., a PaillierRandomizerPool.
+     * @param randomizerVal the source of randomizers, or null to compute a fresh randomizer for every encryption
+     */
+    public void setRandomizer(PaillierRandomizer randomizerVal) {
+        randomizer = randomizerVal;
     }
 
     /**
@@ -119,8 +358,124 @@ public class Paillier {
      * @return plaintext as a BigInteger
      */
     public BigInteger Decryption(BigInteger c) {
-        BigInteger u = g.modPow(lambda, nsquare).subtract(BigInteger.ONE).divide(n).modInverse(n);
-        return c.modPow(lambda, nsquare).subtract(BigInteger.ONE).divide(n).multiply(u).mod(n);
+        return privateKey.Decryption(c);
+    }
+
+    /**
+     * Decrypts ciphertext c using the Chinese Remainder Theorem (see PaillierPrivateKey.DecryptionCRT).
+     * The exponentiations are over p^2 and q^2 with half-size exponents, and the key constants are precomputed at key generation.
+     * With 512 bits of modulus it measured about 2x faster than Decryption (425us -> 210us; 2.0-2.6x in testDecryptionCRT).
+     * @param c ciphertext as a BigInteger
+     * @return plaintext as a BigInteger (the same value as returned by Decryption)
+     */
+    public BigInteger DecryptionCRT(BigInteger c) {
+        return privateKey.DecryptionCRT(c);
+    }
+
+    /**
+     * Rerandomizes a ciphertext: c * r^n mod n^2, where r^n is taken as in Encryption(m) (from the randomizer pool, if set).
+     * @param c ciphertext
+     * @return a ciphertext of the same plaintext that is unlinkable to c
+     */
+    public BigInteger rerandomize(BigInteger c) {
+        return publicKey.rerandomize(c, nextRandomizer());
+    }
+
+    /**
+     * Rerandomizes every ciphertext of a vector, in parallel on the shared fork-join pool. The random inputs are drawn
+     * in the calling thread in advance (see prepareRandomizers).
+     * @param c ciphertexts
+     * @return the rerandomized ciphertexts, in the same order
+     */
+    public BigInteger[] rerandomizeAll(final BigInteger[] c) {
+        return rerandomizeAll(c, prepareRandomizers(c.length));
+    }
+
+    /**
+     * Rerandomizes every ciphertext of a vector with prepared randomizers, in parallel on the shared fork-join pool.
+     * @param c ciphertexts
+     * @param randomizers the randomizers of the ciphertexts (see prepareRandomizers)
+     * @return the rerandomized ciphertexts, in the same order
+     */
+    public BigInteger[] rerandomizeAll(final BigInteger[] c, Supplier<BigInteger[]> randomizers) {
+        final BigInteger[] rn = randomizers.get();
+        return PaillierBatch.map(c.length, i -> publicKey.rerandomize(c[i], rn[i]));
+    }
+
+    /**
+     * Homomorphic dot product of a vector of ciphertexts and a vector of plaintext scalars (see PaillierPublicKey.dotProduct).
+     * @param ciphertexts ciphertexts E(m_i)
+     * @param exponents non-negative plaintext scalars e_i
+     * @return E(sum m_i*e_i)
+     */
+    public BigInteger dotProduct(BigInteger[] ciphertexts, BigInteger[] exponents) {
+        return publicKey.dotProduct(ciphertexts, exponents);
+    }
+
+    /**
+     * Encrypts a vector of plaintexts in parallel on the shared fork-join pool (small vectors are encrypted sequentially).
+     * The randomizers are taken as in Encryption(m), with their random inputs drawn in the calling thread in advance
+     * (see prepareRandomizers), so the ciphertexts are the same for the same seed, regardless of the number of threads.
+     * @param m plaintexts
+     * @return ciphertexts, in the order of the plaintexts
+     */
+    public BigInteger[] encryptAll(final BigInteger[] m) {
+        final BigInteger[] rn = prepareRandomizers(m.length).get();
+        return PaillierBatch.map(m.length, i -> publicKey.EncryptionWithRandomizer(m[i], rn[i]));
+    }
+
+    /**
+     * Encrypts a vector of plaintexts in parallel, with the random inputs drawn sequentially from rnd in advance.
+     * Hence, the ciphertexts are the same for the same seed, regardless of the number of threads.
+     * @param m plaintexts
+     * @param rnd source of the random inputs
+     * @return ciphertexts, in the order of the plaintexts
+     */
+    public BigInteger[] encryptAll(BigInteger[] m, Random rnd) {
+        return publicKey.encryptAll(m, rnd);
+    }
+
+    /**
+     * Encrypts count zeros in parallel, i.e., computes count randomizers (an encryption of zero is g^0 * r^n = r^n),
+     * with their random inputs drawn in the calling thread in advance (see prepareRandomizers).
+     * @param count number of ciphertexts
+     * @return count independent encryptions of zero
+     */
+    public BigInteger[] encryptZeros(int count) {
+        return prepareRandomizers(count).get();
+    }
+
+    /**
+     * Encrypts count zeros in parallel, with the random inputs drawn sequentially from rnd in advance.
+     * @param count number of ciphertexts
+     * @param rnd source of the random inputs
+     * @return count independent encryptions of zero
+     */
+    public BigInteger[] encryptZeros(int count, Random rnd) {
+        return publicKey.encryptZeros(count, rnd);
+    }
+
+    /**
+     * Decrypts a vector of ciphertexts in parallel with DecryptionCRT.
+     * @param c ciphertexts
+     * @return plaintexts, in the order of the ciphertexts
+     */
+    public BigInteger[] decryptAll(BigInteger[] c) {
+        return privateKey.decryptAll(c);
+    }
+
+    /**
+     * @return the public key, which is the part of the cryptosystem that is sent to other agents
+     */
+    public PaillierPublicKey getPublicKey() {
+        return publicKey;
+    }
+
+    /**
+     * @return the private key
+     */
+    public PaillierPrivateKey getPrivateKey() {
+        return privateKey;
     }
 
     /**
@@ -187,14 +542,469 @@ public class Paillier {
 		
 		(g.multiply(g)).mod(p);
 		
+		System.out.println("\n*********************\nCRT decryption check:");
+		testDecryptionCRT(1000);
+		System.out.println("\n*********************\nPrime generation:");
+		testPrimeGeneration(512, 20);
+		System.out.println("\n*********************\nRandomizer modes:");
+		testRandomizerCosts(1000);
+		System.out.println("\n*********************\nBatch operations:");
+		testBatchOperations(20, 50);
+		System.out.println("\n*********************\nDot product:");
+		testDotProduct(20, 100, 200);
+		System.out.println("\n*********************\nPrecomputed dot product:");
+		testPrecomputedDotProduct(10, 100, 20, 200);
+		System.out.println("\n*********************\nCiphertext backends:");
+		testCiphertextOps(512, 200);
+		System.out.println("\n*********************\nCiphertext codec:");
+		testCiphertextCodec(512, 100);
+		System.out.println("\n*********************\nPacking:");
+		testPacking(20, 8, 100);
+		System.out.println("\n*********************\nDamgard-Jurik:");
+		testDamgardJurik(512, 3, 100);
 		System.out.println("\n*********************\nExperiment 1:");
 		testEncryptionCosts(1000);
 		System.out.println("\n*********************\nExperiment 2:");
 		testEncryptionCosts2(1000,1000);
+		for (int bits : new int[] {1024, 2048, 3072}) {
+			System.out.println("\n*********************\nExperiment 1 with "+bits+" bits of modulus:");
+			testEncryptionCosts(10, bits);
+		}
         
     }
     
+    /**
+     * Regression check of DecryptionCRT against Decryption (for both g = 2 and g = n+1), also reporting the average time of both.
+     * @param iterations number of random plaintexts to check
+     */
+    public static void testDecryptionCRT(int iterations) {
+    	long tDecrypt=0, tDecryptCRT=0;
+    	long startTime;
+    	int mismatches = 0;
+    	Random r = new Random();
+    	Paillier paillier = new Paillier();
+    	
+    	for (int iter=0; iter<iterations; iter++) {
+    		/* Renew the keys from time to time, so that several key pairs (with both generators) are checked */
+    		if (iter % 100 == 99)
+    			paillier = new Paillier(512, 64, (iter / 100) % 2 == 0);
+    		BigInteger m = new BigInteger(paillier.bitLength, r).mod(paillier.n);
+    		BigInteger c = paillier.Encryption(m);
+    		
+    		startTime = System.nanoTime();
+    		BigInteger m1 = paillier.Decryption(c);
+    		tDecrypt += (System.nanoTime() - startTime);
+    		
+    		startTime = System.nanoTime();
+    		BigInteger m2 = paillier.DecryptionCRT(c);
+    		tDecryptCRT += (System.nanoTime() - startTime);
+    		
+    		if (!m1.equals(m) || !m2.equals(m1))
+    			mismatches++;
+    	}
+    	
+    	System.out.println("Mismatches between Decryption and DecryptionCRT: "+mismatches+" out of "+iterations);
+    	System.out.println("Average decryption: "+(tDecrypt/iterations)+" nanoseconds");
+    	System.out.println("Average CRT decryption: "+(tDecryptCRT/iterations)+" nanoseconds");
+    }
+    
+    /**
+     * Compares the randomizer modes: the memory footprint of their precomputed tables against the average time of computing
+     * a randomizer (and the speedup relative to the STANDARD mode). Also checks that encryptions with every mode decrypt correctly.
+     * @param iterations number of randomizers computed with each mode
+     */
+    public static void testRandomizerCosts(int iterations) {
+    	long startTime;
+    	Paillier paillier = new Paillier(512, 64, true);
+    	double standardNanos = 0;
+    	
+    	for (RandomizerMode mode : RandomizerMode.values()) {
+    		startTime = System.nanoTime();
+    		paillier.setRandomizerMode(mode);
+    		long tSetup = System.nanoTime() - startTime;
+    		
+    		startTime = System.nanoTime();
+    		for (int iter=0; iter<iterations; iter++)
+    			paillier.newRandomizer();
+    		double nanos = (double) (System.nanoTime() - startTime) / iterations;
+    		if (mode == RandomizerMode.STANDARD)
+    			standardNanos = nanos;
+    		
+    		int mismatches = 0;
+    		for (int iter=0; iter<100; iter++) {
+    			BigInteger m = BigInteger.valueOf(iter);
+    			if (!paillier.DecryptionCRT(paillier.Encryption(m)).equals(m))
+    				mismatches++;
+    		}
+    		
+    		System.out.println(mode+": table "+paillier.getRandomizerTableBytes()+" bytes (setup "+tSetup+" nanoseconds), average randomizer "
+    				+(long) nanos+" nanoseconds, speedup "+String.format("%.2f", standardNanos/nanos)+", decryption mismatches "+mismatches);
+    	}
+    }
+    
+    /**
+     * Checks that encryptAll with a seeded Random is deterministic and equal to the sequential encryptions (also with the
+     * seeded source of the cryptosystem, as are the randomizers of rerandomizeAll), that decryptAll decrypts correctly, and that rerandomizeAll changes every ciphertext but not its plaintext. Also compares the average time of encrypting and decrypting a vector sequentially and in parallel.
+     * @param size length of the vectors (e.g., a domain size)
+     * @param iterations number of vectors
+     */
+    public static void testBatchOperations(int size, int iterations) {
+    	long tSequential=0, tParallel=0, tDecrypt=0, tDecryptAll=0;
+    	long startTime;
+    	int mismatches = 0;
+    	Paillier paillier = new Paillier(512, 64, true);
+    	BigInteger[] m = new BigInteger[size];
+    	for (int i=0; i<size; i++)
+    		m[i] = BigInteger.valueOf(i);
+    	
+    	for (int iter=0; iter<iterations; iter++) {
+    		Random rnd = new Random(iter);
+    		BigInteger[] c1 = new BigInteger[size];
+    		startTime = System.nanoTime();
+    		for (int i=0; i<size; i++)
+    			c1[i] = paillier.Encryption(m[i], new BigInteger(paillier.getBitLength(), rnd));
+    		tSequential += (System.nanoTime() - startTime);
+    		
+    		startTime = System.nanoTime();
+    		BigInteger[] c2 = paillier.encryptAll(m, new Random(iter));
+    		tParallel += (System.nanoTime() - startTime);
+    		
+    		startTime = System.nanoTime();
+    		for (int i=0; i<size; i++)
+    			paillier.DecryptionCRT(c2[i]);
+    		tDecrypt += (System.nanoTime() - startTime);
+    		
+    		startTime = System.nanoTime();
+    		BigInteger[] d = paillier.decryptAll(c2);
+    		tDecryptAll += (System.nanoTime() - startTime);
+    		
+    		BigInteger[] c3 = paillier.rerandomizeAll(c2);
+    		boolean linked = false;
+    		for (int i=0; i<size; i++)
+    			linked |= c3[i].equals(c2[i]);
+    		
+    		/* With the seeded source of the cryptosystem, encryptAll and rerandomizeAll do not depend on the scheduling of the threads */
+    		paillier.setRandom(new Random(iter));
+    		BigInteger[] c4 = paillier.encryptAll(m);
+    		BigInteger[] c5 = paillier.rerandomizeAll(c4);
+    		paillier.setRandom(new Random(iter));
+    		boolean repeated = Arrays.equals(paillier.encryptAll(m), c4) && Arrays.equals(paillier.rerandomizeAll(c4), c5);
+    		
+    		if (!Arrays.equals(c1, c2) || !Arrays.equals(d, m) || !Arrays.equals(paillier.decryptAll(c3), m) || linked
+    				|| !Arrays.equals(c4, c1) || !repeated)
+    			mismatches++;
+    	}
+    	
+    	System.out.println("Mismatches of seeded encryptAll, decryptAll and rerandomizeAll: "+mismatches+" out of "+iterations+" vectors of size "+size);
+    	System.out.println("Average sequential vector encryption: "+(tSequential/iterations)+" nanoseconds, encryptAll: "+(tParallel/iterations)+" nanoseconds");
+    	System.out.println("Average sequential vector decryption: "+(tDecrypt/iterations)+" nanoseconds, decryptAll: "+(tDecryptAll/iterations)+" nanoseconds");
+    }
+    
+    /**
+     * Checks dotProduct against the product of independent modPow's (and the decryption against the plaintext dot product),
+     * and compares their average time. The exponents are of the size of the costs in the shares of PC-SyncBB.
+     * @param size length of the vectors (e.g., a domain size)
+     * @param maxExponent the exponents are chosen uniformly from [0, maxExponent)
+     * @param iterations number of vectors
+     */
+    public static void testDotProduct(int size, int maxExponent, int iterations) {
+    	long tNaive=0, tStraus=0;
+    	long startTime;
+    	int mismatches = 0;
+    	Random rnd = new Random();
+    	Paillier paillier = new Paillier(512, 64, true);
+    	
+    	for (int iter=0; iter<iterations; iter++) {
+    		BigInteger[] m = new BigInteger[size];
+    		BigInteger[] e = new BigInteger[size];
+    		BigInteger expected = BigInteger.ZERO;
+    		for (int i=0; i<size; i++) {
+    			m[i] = BigInteger.valueOf(rnd.nextInt(2));
+    			e[i] = BigInteger.valueOf(rnd.nextInt(maxExponent));
+    			expected = expected.add(m[i].multiply(e[i]));
+    		}
+    		BigInteger[] c = paillier.encryptAll(m);
+    		
+    		startTime = System.nanoTime();
+    		BigInteger y1 = BigInteger.ONE;
+    		for (int i=0; i<size; i++)
+    			y1 = y1.multiply(c[i].modPow(e[i], paillier.nsquare)).mod(paillier.nsquare);
+    		tNaive += (System.nanoTime() - startTime);
+    		
+    		startTime = System.nanoTime();
+    		BigInteger y2 = paillier.dotProduct(c, e);
+    		tStraus += (System.nanoTime() - startTime);
+    		
+    		if (!y1.equals(y2) || !paillier.DecryptionCRT(y2).equals(expected))
+    			mismatches++;
+    	}
+    	
+    	System.out.println("Mismatches of dotProduct: "+mismatches+" out of "+iterations+" vectors of size "+size);
+    	System.out.println("Average independent modPow's: "+(tNaive/iterations)+" nanoseconds, dotProduct: "+(tStraus/iterations)+" nanoseconds");
+    }
+    
+    /**
+     * Checks PrecomputedDotProduct against dotProduct times the power of the product (as Y_t in PC-SyncBB), reusing a
+     * single vector for all the iterations, and compares their average time (without the precomputation of the tables).
+     * @param size length of the vector (e.g., a domain size)
+     * @param maxExponent the exponents are chosen uniformly from [0, maxExponent)
+     * @param productExponentBits number of bits of the exponent of the product (e.g., S_DIGIT)
+     * @param iterations number of exponent vectors
+     */
+    public static void testPrecomputedDotProduct(int size, int maxExponent, int productExponentBits, int iterations) {
+    	long tDirect=0, tPrecomputed=0;
+    	long startTime;
+    	int mismatches = 0;
+    	Random rnd = new Random();
+    	Paillier paillier = new Paillier(512, 64, true);
+    	PaillierPublicKey publicKey = paillier.getPublicKey();
+    	BigInteger[] m = new BigInteger[size];
+    	for (int i=0; i<size; i++)
+    		m[i] = BigInteger.valueOf(rnd.nextInt(2));
+    	BigInteger[] c = paillier.encryptAll(m);
+    	PrecomputedDotProduct precomputed = new PrecomputedDotProduct(publicKey, c, BigInteger.valueOf(maxExponent - 1).bitLength(), productExponentBits);
+    	/* the tables are computed by the first dot product */
+    	BigInteger[] zeros = new BigInteger[size];
+    	java.util.Arrays.fill(zeros, BigInteger.ZERO);
+    	precomputed.dotProduct(zeros, BigInteger.ZERO);
+    	
+    	for (int iter=0; iter<iterations; iter++) {
+    		BigInteger[] e = new BigInteger[size];
+    		for (int i=0; i<size; i++)
+    			e[i] = BigInteger.valueOf(rnd.nextInt(maxExponent));
+    		/* a few exponents longer than the tables, to check the fallback */
+    		BigInteger f = new BigInteger(productExponentBits + ((iter % 50 == 49) ? 8 : 0), rnd);
+    		
+    		startTime = System.nanoTime();
+    		BigInteger y1 = publicKey.add(publicKey.dotProduct(c, e), publicKey.multiply(publicKey.product(c), f));
+    		tDirect += (System.nanoTime() - startTime);
+    		
+    		startTime = System.nanoTime();
+    		BigInteger y2 = precomputed.dotProduct(e, f);
+    		tPrecomputed += (System.nanoTime() - startTime);
+    		
+    		if (!y1.equals(y2))
+    			mismatches++;
+    	}
+    	
+    	System.out.println("Mismatches of PrecomputedDotProduct: "+mismatches+" out of "+iterations+" vectors of size "+size);
+    	System.out.println("Average dotProduct and power of the product: "+(tDirect/iterations)+" nanoseconds, precomputed: "+(tPrecomputed/iterations)+" nanoseconds");
+    }
+    
+    /**
+     * Checks PaillierPacking: sums 2^headroomBits-1 packed vectors of random values slot-wise and compares the unpacked decryption
+     * with the plaintext sums. Also reports how many ciphertexts are saved.
+     * @param valueBits number of bits of every value (e.g., S_DIGIT of the shares)
+     * @param headroomBits number of headroom bits of every slot
+     * @param size length of the vectors
+     */
+    public static void testPacking(int valueBits, int headroomBits, int size) {
+    	Random rnd = new Random();
+    	Paillier paillier = new Paillier(512, 64, true);
+    	PaillierPacking packing = new PaillierPacking(paillier.getPublicKey(), valueBits, headroomBits);
+    	int additions = (1 << headroomBits) - 1;
+    	BigInteger[] sums = new BigInteger[size];
+    	Arrays.fill(sums, BigInteger.ZERO);
+    	BigInteger[] c = null;
+    	
+    	for (int iter=0; iter<additions; iter++) {
+    		BigInteger[] values = new BigInteger[size];
+    		for (int i=0; i<size; i++) {
+    			values[i] = new BigInteger(valueBits, rnd);
+    			sums[i] = sums[i].add(values[i]);
+    		}
+    		BigInteger[] ci = packing.encryptAll(values, rnd);
+    		if (c == null)
+    			c = ci;
+    		else
+    			for (int j=0; j<c.length; j++)
+    				c[j] = packing.add(c[j], ci[j]);
+    	}
+    	
+    	boolean ok = Arrays.equals(packing.decryptAll(paillier.getPrivateKey(), c, size), sums);
+    	System.out.println("Packing of "+valueBits+"-bit values with "+headroomBits+" headroom bits: "+packing.getSlots()+" slots per ciphertext, "
+    			+size+" values in "+c.length+" ciphertexts, sums of "+additions+" vectors "+(ok ? "match" : "MISMATCH"));
+    }
+    
+    /**
+     * Checks the Damgard-Jurik cryptosystem for s = 1..maxS: random plaintexts of the full plaintext space are decrypted correctly,
+     * and so are homomorphic sums. Also reports the average times and the ciphertext expansion.
+     * @param bitLength number of bits of n
+     * @param maxS the largest s to check
+     * @param iterations number of plaintexts for every s
+     */
+    public static void testDamgardJurik(int bitLength, int maxS, int iterations) {
+    	Random rnd = new Random();
+    	for (int s=1; s<=maxS; s++) {
+    		DamgardJurik dj = new DamgardJurik(bitLength, s, 64);
+    		long tEncrypt=0, tDecrypt=0;
+    		long startTime;
+    		int mismatches = 0;
+    		for (int iter=0; iter<iterations; iter++) {
+    			BigInteger m1 = new BigInteger(dj.getPlaintextModulus().bitLength(), rnd).mod(dj.getPlaintextModulus());
+    			BigInteger m2 = new BigInteger(dj.getPlaintextModulus().bitLength(), rnd).mod(dj.getPlaintextModulus());
+    			startTime = System.nanoTime();
+    			BigInteger c1 = dj.Encryption(m1);
+    			tEncrypt += (System.nanoTime() - startTime);
+    			startTime = System.nanoTime();
+    			BigInteger d1 = dj.Decryption(c1);
+    			tDecrypt += (System.nanoTime() - startTime);
+    			BigInteger sum = dj.Decryption(dj.add(c1, dj.Encryption(m2)));
+    			if (!d1.equals(m1) || !sum.equals(m1.add(m2).mod(dj.getPlaintextModulus())))
+    				mismatches++;
+    		}
+    		System.out.println("s="+s+": plaintext "+dj.getPlaintextModulus().bitLength()+" bits, ciphertext "+dj.getCiphertextModulus().bitLength()
+    				+" bits, mismatches "+mismatches+" out of "+iterations+", average encryption "+(tEncrypt/iterations)
+    				+" nanoseconds, average decryption "+(tDecrypt/iterations)+" nanoseconds");
+    	}
+    }
+    
+    /**
+     * Regression check of SievePrimeGenerator (the primes are probable primes of exactly the requested length, and a seeded
+     * source gives the same primes), also reporting the average time of a pair of primes against the BigInteger constructor.
+     * @param bitLength number of bits of modulus (the primes have half of it)
+     * @param iterations number of pairs of primes
+     */
+    public static void testPrimeGeneration(int bitLength, int iterations) {
+    	Random rnd = new Random();
+    	SievePrimeGenerator primes = new SievePrimeGenerator(64);
+    	long tBigInteger=0, tSieve=0;
+    	long startTime;
+    	int mismatches = 0;
+    	for (int iter=0; iter<iterations; iter++) {
+    		startTime = System.nanoTime();
+    		BigInteger p = new BigInteger(bitLength / 2, 64, rnd);
+    		BigInteger q = new BigInteger(bitLength / 2, 64, rnd);
+    		tBigInteger += (System.nanoTime() - startTime);
+    		
+    		long seed = rnd.nextLong();
+    		startTime = System.nanoTime();
+    		BigInteger[] pq = primes.nextPrimePair(bitLength / 2, new Random(seed));
+    		tSieve += (System.nanoTime() - startTime);
+    		for (BigInteger prime : pq)
+    			if (prime.bitLength() != bitLength / 2 || !prime.isProbablePrime(64))
+    				mismatches++;
+    		if (pq[0].equals(pq[1]) || pq[0].multiply(pq[1]).bitLength() != bitLength
+    				|| !java.util.Arrays.equals(pq, primes.nextPrimePair(bitLength / 2, new Random(seed))))
+    			mismatches++;
+    		if (!p.isProbablePrime(64) || !q.isProbablePrime(64))
+    			mismatches++;
+    	}
+    	System.out.println("mismatches "+mismatches+" out of "+iterations+", average pair of primes: BigInteger constructor "+(tBigInteger/iterations)
+    			+" nanoseconds, sieve "+(tSieve/iterations)+" nanoseconds");
+    }
+    
+    /**
+     * Round-trip check of CiphertextCodec on ciphertexts (single values, a vector in a heap buffer and in a direct buffer),
+     * also comparing the encoded size with the size of Java serialization.
+     * @param bitLength number of bits of modulus
+     * @param size number of ciphertexts
+     */
+    public static void testCiphertextCodec(int bitLength, int size) {
+    	Random rnd = new Random();
+    	Paillier paillier = new Paillier(bitLength, 64, true);
+    	CiphertextCodec codec = CiphertextCodec.forPublicKey(paillier.getPublicKey());
+    	BigInteger[] m = new BigInteger[size];
+    	for (int i=0; i<size; i++)
+    		m[i] = new BigInteger(20, rnd);
+    	BigInteger[] c = paillier.encryptAll(m);
+    	/* a few short values, to check the padding */
+    	c[0] = BigInteger.ZERO;
+    	c[1] = BigInteger.ONE;
+    	c[2] = paillier.nsquare.subtract(BigInteger.ONE);
+    	
+    	int mismatches = 0;
+    	for (BigInteger ci : c) {
+    		byte[] bytes = codec.encode(ci);
+    		if (bytes.length != codec.getWidth() || !codec.decode(bytes).equals(ci))
+    			mismatches++;
+    	}
+    	for (java.nio.ByteBuffer buffer : new java.nio.ByteBuffer[] {java.nio.ByteBuffer.allocate(3 + codec.encodedSize(size)), java.nio.ByteBuffer.allocateDirect(3 + codec.encodedSize(size))}) {
+    		buffer.position(3);
+    		codec.writeVector(c, buffer);
+    		if (buffer.position() != 3 + codec.encodedSize(size))
+    			mismatches++;
+    		buffer.position(3);
+    		if (!java.util.Arrays.equals(codec.readVector(buffer), c))
+    			mismatches++;
+    	}
+    	
+    	int serialized = -1;
+    	try {
+    		java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+    		java.io.ObjectOutputStream objects = new java.io.ObjectOutputStream(out);
+    		objects.writeObject(c);
+    		objects.close();
+    		serialized = out.size();
+    	} catch (java.io.IOException e) {
+    		e.printStackTrace();
+    	}
+    	System.out.println("mismatches "+mismatches+", width "+codec.getWidth()+" bytes, vector of "+size+" ciphertexts "
+    			+codec.encodedSize(size)+" bytes (Java serialization "+serialized+" bytes)");
+    }
+    
+    /**
+     * Cross-checks every backend of CiphertextOps against the BigInteger reference on random operands (multiplication,
+     * exponentiation by an n-sized exponent, product and dot product of 20 values), and reports the average time and the
+     * average number of bytes allocated by the current thread per operation (when the JVM reports allocations).
+     * @param bitLength number of bits of modulus
+     * @param iterations number of random operands
+     */
+    public static void testCiphertextOps(int bitLength, int iterations) {
+    	Random rnd = new Random();
+    	Paillier paillier = new Paillier(bitLength, 64, true);
+    	BigInteger modulus = paillier.nsquare;
+    	CiphertextOps reference = CiphertextOps.Backend.BIGINTEGER.create(modulus);
+    	java.lang.management.ThreadMXBean threads = java.lang.management.ManagementFactory.getThreadMXBean();
+    	com.sun.management.ThreadMXBean allocations = (threads instanceof com.sun.management.ThreadMXBean) ? (com.sun.management.ThreadMXBean) threads : null;
+    	
+    	for (CiphertextOps.Backend backend : CiphertextOps.Backend.values()) {
+    		CiphertextOps ops = backend.create(modulus);
+    		int mismatches = 0;
+    		long tPow=0, tDot=0, bytesPow=0, bytesDot=0;
+    		for (int iter=0; iter<iterations; iter++) {
+    			BigInteger a = new BigInteger(modulus.bitLength(), rnd).mod(modulus);
+    			BigInteger b = new BigInteger(modulus.bitLength(), rnd).mod(modulus);
+    			BigInteger[] values = new BigInteger[20];
+    			BigInteger[] exponents = new BigInteger[20];
+    			for (int i=0; i<values.length; i++) {
+    				values[i] = new BigInteger(modulus.bitLength(), rnd).mod(modulus);
+    				exponents[i] = BigInteger.valueOf(rnd.nextInt(100));
+    			}
+    			
+    			long bytes = (allocations != null) ? allocations.getThreadAllocatedBytes(Thread.currentThread().getId()) : 0;
+    			long startTime = System.nanoTime();
+    			BigInteger power = ops.pow(a, paillier.n);
+    			tPow += (System.nanoTime() - startTime);
+    			if (allocations != null)
+    				bytesPow += allocations.getThreadAllocatedBytes(Thread.currentThread().getId()) - bytes;
+    			
+    			bytes = (allocations != null) ? allocations.getThreadAllocatedBytes(Thread.currentThread().getId()) : 0;
+    			startTime = System.nanoTime();
+    			BigInteger dot = ops.dotProduct(values, exponents);
+    			tDot += (System.nanoTime() - startTime);
+    			if (allocations != null)
+    				bytesDot += allocations.getThreadAllocatedBytes(Thread.currentThread().getId()) - bytes;
+    			
+    			if (!ops.multiply(a, b).equals(reference.multiply(a, b)) || !power.equals(reference.pow(a, paillier.n))
+    					|| !ops.product(values).equals(reference.product(values)) || !dot.equals(reference.dotProduct(values, exponents)))
+    				mismatches++;
+    		}
+    		System.out.println(backend+": mismatches "+mismatches+" out of "+iterations+", average r^n "+(tPow/iterations)+" nanoseconds ("
+    				+(bytesPow/iterations)+" bytes allocated), average dot product "+(tDot/iterations)+" nanoseconds ("+(bytesDot/iterations)+" bytes allocated)");
+    	}
+    }
+    
     public static void testEncryptionCosts(int iterations) {
+    	testEncryptionCosts(iterations, 512);
+    }
+    
+    /**
+     * The costs of Experiment 1 with a given modulus size, so that the numbers of every security level can be reproduced.
+     * @param iterations number of iterations
+     * @param bitLength number of bits of modulus
+     */
+    public static void testEncryptionCosts(int iterations, int bitLength) {
     	long tEncrypt=0, tDecrypt=0, tAddP=0, tAddLong=0, tAddInt=0, tMultP=0, tMultLong=0, tCompP=0, tCompLong=0, tCompInt=0, tGenP=0, tGenLong=0, tGenInt=0, tCryptoSys=0, tTimeChk=0;; 
     	long startTime;
     	Random r = new Random(); 
@@ -206,7 +1016,7 @@ public class Paillier {
     		
     		/* Checking the time it takes to instantiate an object of Paillier cryptosystem */
     		startTime = System.nanoTime();
-    		Paillier paillier = new Paillier();
+    		Paillier paillier = new Paillier(bitLength, 64);
     		tCryptoSys += (System.nanoTime() - startTime);
     		
     		/* Checking the time it takes to generate a random integer */
@@ -0,0 +1,133 @@
+package ext.sim.tools.privacy;
+
+import java.math.BigInteger;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+
+/**
+ * Runs batches of independent Paillier operations (encryptions, decryptions, primality tests) on a fork-join pool that is shared by
+ * all the agents of the simulation. Batches smaller than SEQUENTIAL_THRESHOLD are computed in the calling thread,
+ * since for them the cost of the fork-join tasks is not worth it.
+ *
+ * @author Tal Grinshpoun
+ *
+ */
+final class PaillierBatch {
+
+	public static final int SEQUENTIAL_THRESHOLD = 4;
+
+	/**
+	 * The worker threads of a ForkJoinPool are daemon threads, so the pool does not have to be shut down.
+	 */
+	private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+	private PaillierBatch() {
+	}
+
+	/**
+	 * Computes operation(0), ..., operation(size-1).
+	 * The operation must be safe to call concurrently, and must not draw from a shared seeded Random
+	 * (draw the random values in advance to keep the results deterministic).
+	 * @param size number of elements
+	 * @param operation the operation that computes the i-th element
+	 * @return the array of results
+	 */
+	static BigInteger[] map(int size, IntFunction<BigInteger> operation) {
+		BigInteger[] results = new BigInteger[size];
+		if (size < SEQUENTIAL_THRESHOLD) {
+			for (int i=0; i<size; i++)
+				results[i] = operation.apply(i);
+		}
+		else
+			POOL.invoke(new MapTask(results, operation, 0, size));
+		return results;
+	}
+
+	/**
+	 * Finds the first index that passes a test, testing up to getParallelism() indices at a time concurrently (so that
+	 * the indices after the first passing one are rarely tested). The test must be safe to call concurrently.
+	 * @param size number of indices
+	 * @param test the test of an index
+	 * @return the smallest index in [0, size) that passes the test, or -1 if there is none
+	 */
+	static int findFirst(int size, final IntPredicate test) {
+		int block = POOL.getParallelism();
+		if (block < 2) {
+			for (int i=0; i<size; i++)
+				if (test.test(i))
+					return i;
+			return -1;
+		}
+		final AtomicInteger first = new AtomicInteger(size);
+		for (int from=0; from<size && first.get()==size; from+=block)
+			POOL.invoke(new FindTask(first, test, from, Math.min(size, from + block)));
+		return first.get() < size ? first.get() : -1;
+	}
+
+	/**
+	 * Starts a task on the pool (e.g., a search that runs concurrently with a search in the calling thread).
+	 */
+	static <T> ForkJoinTask<T> fork(Callable<T> task) {
+		return POOL.submit(task);
+	}
+
+	private static class MapTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final BigInteger[] results;
+		private final IntFunction<BigInteger> operation;
+		private final int from, to;
+
+		MapTask(BigInteger[] results, IntFunction<BigInteger> operation, int from, int to) {
+			this.results = results;
+			this.operation = operation;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			// Every element is a modular exponentiation, so splitting down to single elements is cheap in comparison
+			if (to - from == 1) {
+				results[from] = operation.apply(from);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new MapTask(results, operation, from, mid), new MapTask(results, operation, mid, to));
+		}
+	}
+
+	private static class FindTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final AtomicInteger first;
+		private final IntPredicate test;
+		private final int from, to;
+
+		FindTask(AtomicInteger first, IntPredicate test, int from, int to) {
+			this.first = first;
+			this.test = test;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from == 1) {
+				// An index after an index that already passed cannot be the first one
+				if (from < first.get() && test.test(from))
+					first.accumulateAndGet(from, Math::min);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new FindTask(first, test, from, mid), new FindTask(first, test, mid, to));
+		}
+	}
+}
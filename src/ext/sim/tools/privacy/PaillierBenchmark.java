@@ -0,0 +1,198 @@
+package ext.sim.tools.privacy;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntFunction;
+
+/**
+ * Micro-benchmarks of the Paillier operations that the protocol cost model is built from: key generation (and the
+ * generation of the primes, by the BigInteger constructor and by SievePrimeGenerator), encryption,
+ * decryption, homomorphic addition and scalar multiplication, rerandomization and encrypted dot products, for every
+ * combination of modulus size and plaintext bit width. Unlike the hand-timed loops of Paillier.main:
+ * - every operation runs in batches that are long enough for System.nanoTime() (calibrated during the warmup);
+ * - the warmup batches are discarded, so the measured code is already compiled by the JIT;
+ * - the inputs rotate over precomputed random arrays and every result is consumed, so the JIT cannot fold or eliminate the work.
+ * The results are written as CSV (one line per benchmark and parameters, times in nanoseconds per operation).
+ *
+ * Usage: PaillierBenchmark [modulus bits, comma separated] [plaintext bits, comma separated] [output file]
+ * (defaults: 512,1024,2048 bits of modulus, 20 bits of plaintext, standard output).
+ *
+ * @author Tal Grinshpoun
+ *
+ */
+public class PaillierBenchmark {
+
+	public static final String CSV_HEADER = "benchmark,modulus_bits,plaintext_bits,ops_per_sample,samples,mean_ns,stdev_ns,min_ns";
+	public static final int DEFAULT_WARMUP_SAMPLES = 5;
+	public static final int DEFAULT_SAMPLES = 10;
+	public static final long DEFAULT_SAMPLE_NANOS = 50000000L;
+	public static final int DOT_PRODUCT_LENGTH = 20;
+	private static final int INPUTS = 64;
+
+	/**
+	 * Consumes the results of the measured operations (as the Blackhole of JMH).
+	 */
+	private static volatile int sink;
+
+	private final int warmupSamples, samples;
+	private final long sampleNanos;
+	private final Random rnd = new Random(1);
+
+	/**
+	 * The result of a single benchmark.
+	 */
+	public static class Result {
+		public final String benchmark;
+		public final int modulusBits, plaintextBits, opsPerSample, samples;
+		public final double meanNanos, stdevNanos, minNanos;
+
+		Result(String benchmark, int modulusBits, int plaintextBits, int opsPerSample, double[] nanosPerOp) {
+			this.benchmark = benchmark;
+			this.modulusBits = modulusBits;
+			this.plaintextBits = plaintextBits;
+			this.opsPerSample = opsPerSample;
+			this.samples = nanosPerOp.length;
+			double sum = 0, min = Double.MAX_VALUE;
+			for (double x : nanosPerOp) {
+				sum += x;
+				min = Math.min(min, x);
+			}
+			double mean = sum / samples, squares = 0;
+			for (double x : nanosPerOp)
+				squares += (x - mean) * (x - mean);
+			this.meanNanos = mean;
+			this.stdevNanos = (samples > 1) ? Math.sqrt(squares / (samples - 1)) : 0;
+			this.minNanos = min;
+		}
+
+		public String toCsv() {
+			return benchmark+","+modulusBits+","+plaintextBits+","+opsPerSample+","+samples+","
+					+String.format("%.0f,%.0f,%.0f", meanNanos, stdevNanos, minNanos);
+		}
+	}
+
+	public PaillierBenchmark(int warmupSamples, int samples, long sampleNanos) {
+		this.warmupSamples = warmupSamples;
+		this.samples = samples;
+		this.sampleNanos = sampleNanos;
+	}
+
+	public PaillierBenchmark() {
+		this(DEFAULT_WARMUP_SAMPLES, DEFAULT_SAMPLES, DEFAULT_SAMPLE_NANOS);
+	}
+
+	/**
+	 * Runs all the benchmarks for a modulus size and a plaintext bit width.
+	 * @param modulusBits number of bits of modulus
+	 * @param plaintextBits number of bits of the plaintexts and of the scalars
+	 * @return the results
+	 */
+	public List<Result> run(final int modulusBits, final int plaintextBits) {
+		List<Result> results = new ArrayList<>();
+		/* Key generation is too slow for batches, so every sample is a single key (and fewer samples for large moduli) */
+		results.add(measure("key_generation", modulusBits, plaintextBits, i -> new Paillier(modulusBits, 64, true).n, true));
+		/* The primes of a key: the BigInteger constructor (as in the published experiments) against SievePrimeGenerator */
+		final SievePrimeGenerator primes = new SievePrimeGenerator(64);
+		results.add(measure("prime_pair_biginteger", modulusBits, plaintextBits, i -> new BigInteger(modulusBits / 2, 64, rnd).add(new BigInteger(modulusBits / 2, 64, rnd)), true));
+		results.add(measure("prime_pair_sieve", modulusBits, plaintextBits, i -> primes.nextPrime(modulusBits / 2, rnd).add(primes.nextPrime(modulusBits / 2, rnd)), true));
+		results.add(measure("prime_pair_sieve_concurrent", modulusBits, plaintextBits, i -> primes.nextPrimePair(modulusBits / 2, rnd)[0], true));
+
+		final Paillier paillier = new Paillier(modulusBits, 64, true, new Random(modulusBits));
+		final PaillierPublicKey publicKey = paillier.getPublicKey();
+		final BigInteger[] m = new BigInteger[INPUTS];
+		final BigInteger[] k = new BigInteger[INPUTS];
+		for (int i=0; i<INPUTS; i++) {
+			m[i] = new BigInteger(plaintextBits, rnd);
+			k[i] = new BigInteger(plaintextBits, rnd);
+		}
+		final BigInteger[] c = paillier.encryptAll(m, rnd);
+		final BigInteger[] rn = new BigInteger[INPUTS];
+		for (int i=0; i<INPUTS; i++)
+			rn[i] = paillier.newRandomizer();
+		final BigInteger[][] dotExponents = new BigInteger[INPUTS][DOT_PRODUCT_LENGTH];
+		final BigInteger[][] dotCiphertexts = new BigInteger[INPUTS][DOT_PRODUCT_LENGTH];
+		for (int i=0; i<INPUTS; i++)
+			for (int j=0; j<DOT_PRODUCT_LENGTH; j++) {
+				dotExponents[i][j] = k[(i + j) % INPUTS];
+				dotCiphertexts[i][j] = c[(i * 7 + j) % INPUTS];
+			}
+
+		results.add(measure("randomizer", modulusBits, plaintextBits, i -> paillier.newRandomizer(), false));
+		results.add(measure("encryption", modulusBits, plaintextBits, i -> paillier.Encryption(m[i % INPUTS]), false));
+		results.add(measure("encryption_with_randomizer", modulusBits, plaintextBits, i -> publicKey.EncryptionWithRandomizer(m[i % INPUTS], rn[i % INPUTS]), false));
+		results.add(measure("decryption", modulusBits, plaintextBits, i -> paillier.Decryption(c[i % INPUTS]), false));
+		results.add(measure("decryption_crt", modulusBits, plaintextBits, i -> paillier.DecryptionCRT(c[i % INPUTS]), false));
+		results.add(measure("add", modulusBits, plaintextBits, i -> publicKey.add(c[i % INPUTS], c[(i + 1) % INPUTS]), false));
+		results.add(measure("scalar_multiply", modulusBits, plaintextBits, i -> publicKey.multiply(c[i % INPUTS], k[i % INPUTS]), false));
+		results.add(measure("rerandomize", modulusBits, plaintextBits, i -> publicKey.add(c[i % INPUTS], paillier.newRandomizer()), false));
+		results.add(measure("dot_product_" + DOT_PRODUCT_LENGTH, modulusBits, plaintextBits, i -> publicKey.dotProduct(dotCiphertexts[i % INPUTS], dotExponents[i % INPUTS]), false));
+		return results;
+	}
+
+	/**
+	 * Measures an operation: calibrates the batch size during the warmup, and then measures the samples.
+	 * @param single if true then every sample is a single operation
+	 */
+	private Result measure(String name, int modulusBits, int plaintextBits, IntFunction<Object> operation, boolean single) {
+		int ops = 1;
+		int counter = 0;
+		for (int w=0; w<warmupSamples; w++) {
+			long nanos = batch(operation, ops, counter);
+			counter += ops;
+			if (!single)
+				while (nanos < sampleNanos && ops < (1 << 24)) {
+					ops *= 2;
+					nanos = batch(operation, ops, counter);
+					counter += ops;
+				}
+			if (single && nanos > 20 * sampleNanos)
+				break;
+		}
+		int sampleCount = single ? Math.max(3, Math.min(samples, (int) (20 * sampleNanos / Math.max(1, batch(operation, 1, counter++))))) : samples;
+		double[] nanosPerOp = new double[sampleCount];
+		for (int s=0; s<sampleCount; s++) {
+			nanosPerOp[s] = (double) batch(operation, ops, counter) / ops;
+			counter += ops;
+		}
+		return new Result(name, modulusBits, plaintextBits, ops, nanosPerOp);
+	}
+
+	private static long batch(IntFunction<Object> operation, int ops, int from) {
+		int h = 0;
+		long start = System.nanoTime();
+		for (int i=0; i<ops; i++)
+			h += operation.apply(from + i).hashCode();
+		long nanos = System.nanoTime() - start;
+		sink += h;
+		return nanos;
+	}
+
+	private static int[] parseList(String s) {
+		String[] parts = s.split(",");
+		int[] values = new int[parts.length];
+		for (int i=0; i<parts.length; i++)
+			values[i] = Integer.parseInt(parts[i].trim());
+		return values;
+	}
+
+	public static void main(String[] args) throws FileNotFoundException {
+		int[] modulusSizes = (args.length > 0) ? parseList(args[0]) : new int[] {512, 1024, 2048};
+		int[] plaintextSizes = (args.length > 1) ? parseList(args[1]) : new int[] {20};
+		PrintStream out = (args.length > 2) ? new PrintStream(args[2]) : System.out;
+
+		PaillierBenchmark benchmark = new PaillierBenchmark();
+		out.println(CSV_HEADER);
+		for (int modulusBits : modulusSizes)
+			for (int plaintextBits : plaintextSizes)
+				for (Result result : benchmark.run(modulusBits, plaintextBits)) {
+					out.println(result.toCsv());
+					out.flush();
+				}
+		if (out != System.out)
+			out.close();
+	}
+}
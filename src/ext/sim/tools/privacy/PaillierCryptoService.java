@@ -0,0 +1,147 @@
+package ext.sim.tools.privacy;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Asynchronous Paillier operations (encryption, decryption, dot product and rerandomization), so that an agent can
+ * start the expensive modular exponentiations of a message and go on with other work (or wait for the replies of
+ * other neighbors) until it needs their results.
+ * The shared service runs on a bounded pool of worker threads (one per processor) that is shared by all the agents
+ * of the simulation; when the queue of the pool is full, the operation runs in the calling thread instead.
+ * The direct service runs every operation in the calling thread, i.e., it returns completed futures.
+ *
+ * An agent must not send messages from the worker threads: it joins the futures (see join) in its own handlers
+ * before it sends the messages that depend on their results. The random values of an operation are drawn in the
+ * calling thread before the operation is submitted: the agent draws the exponents of dotProduct, and the service draws
+ * the random inputs of the randomizers of the cryptosystem (see Paillier.prepareRandomizers), so the results do not
+ * depend on the scheduling of the worker threads.
+ *
+ * @author Tal Grinshpoun
+ *
+ */
+public class PaillierCryptoService {
+
+	public static final int QUEUE_CAPACITY = 1024;
+
+	private static final PaillierCryptoService DIRECT = new PaillierCryptoService(Runnable::run);
+	private static PaillierCryptoService shared = null;
+
+	private final Executor executor;
+
+	/**
+	 * @param executor the executor of the operations
+	 */
+	public PaillierCryptoService(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * @return the service that runs on the bounded pool that is shared by all the agents
+	 */
+	public static synchronized PaillierCryptoService shared() {
+		if (shared == null) {
+			int threads = Runtime.getRuntime().availableProcessors();
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+					new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY), r -> {
+						Thread thread = new Thread(r, "paillier-crypto-service");
+						thread.setDaemon(true);
+						return thread;
+					}, new ThreadPoolExecutor.CallerRunsPolicy());
+			pool.allowCoreThreadTimeOut(true);
+			shared = new PaillierCryptoService(pool);
+		}
+		return shared;
+	}
+
+	/**
+	 * @return the service that runs every operation in the calling thread
+	 */
+	public static PaillierCryptoService direct() {
+		return DIRECT;
+	}
+
+	/**
+	 * @param async if true then the shared service, otherwise the direct service
+	 */
+	public static PaillierCryptoService get(boolean async) {
+		return async ? shared() : direct();
+	}
+
+	/**
+	 * @return the future result of an operation
+	 */
+	public <T> CompletableFuture<T> submit(Supplier<T> operation) {
+		return CompletableFuture.supplyAsync(operation, executor);
+	}
+
+	/**
+	 * @return the future encryption of m (with a randomizer of the cryptosystem)
+	 */
+	public CompletableFuture<BigInteger> encrypt(final Paillier paillier, final BigInteger m) {
+		final Supplier<BigInteger[]> randomizer = paillier.prepareRandomizers(1);
+		return submit(() -> paillier.getPublicKey().EncryptionWithRandomizer(m, randomizer.get()[0]));
+	}
+
+	/**
+	 * @return the future encryption of m with a public key, whose random input is drawn from rnd in the calling thread
+	 */
+	public CompletableFuture<BigInteger> encrypt(final PaillierPublicKey publicKey, final BigInteger m, Random rnd) {
+		final BigInteger r = new BigInteger(publicKey.getBitLength(), rnd);
+		return submit(() -> publicKey.Encryption(m, r));
+	}
+
+	/**
+	 * @return the future (CRT) decryption of c
+	 */
+	public CompletableFuture<BigInteger> decrypt(final Paillier paillier, final BigInteger c) {
+		return submit(() -> paillier.DecryptionCRT(c));
+	}
+
+	/**
+	 * @return the future (CRT) decryption of c with a private key
+	 */
+	public CompletableFuture<BigInteger> decrypt(final PaillierPrivateKey privateKey, final BigInteger c) {
+		return submit(() -> privateKey.DecryptionCRT(c));
+	}
+
+	/**
+	 * @return the future encryption of sum exponents[i]*D(ciphertexts[i]) (see PaillierPublicKey.dotProduct)
+	 */
+	public CompletableFuture<BigInteger> dotProduct(final PaillierPublicKey publicKey, final BigInteger[] ciphertexts, final BigInteger[] exponents) {
+		return submit(() -> publicKey.dotProduct(ciphertexts, exponents));
+	}
+
+	/**
+	 * @return the future rerandomizations of the ciphertexts (with randomizers of the cryptosystem, whose random inputs
+	 * are drawn in the calling thread, see Paillier.prepareRandomizers)
+	 */
+	public CompletableFuture<BigInteger[]> rerandomizeAll(final Paillier paillier, final BigInteger[] c) {
+		final Supplier<BigInteger[]> randomizers = paillier.prepareRandomizers(c.length);
+		return submit(() -> paillier.rerandomizeAll(c, randomizers));
+	}
+
+	/**
+	 * Waits for the result of an operation (the agent-side counterpart of the operations).
+	 * @return the result
+	 * @throws RuntimeException the exception of the operation (unwrapped from the CompletionException)
+	 */
+	public static <T> T join(CompletableFuture<T> future) {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			if (e.getCause() instanceof Error)
+				throw (Error) e.getCause();
+			throw e;
+		}
+	}
+}
@@ -0,0 +1,244 @@
+package ext.sim.tools.privacy;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A persistent pool of pregenerated Paillier keys, so that agents do not have to generate fresh primes at start-up.
+ * 
+ * The keys of a single modulus size are stored in a compact binary file: a header (magic number, version, modulus
+ * size, number of keys) followed by fixed-width records, each holding the two primes p and q as unsigned big-endian
+ * numbers of bitLength/2 bits. The file is memory-mapped, and keys are handed out deterministically by
+ * (run seed, agent id), so that runs are reproducible and different agents of the same run get different keys
+ * (as long as the pool holds at least as many keys as agents).
+ * 
+ * A pool is filled by running this class: <br>
+ * <code>java ext.sim.tools.privacy.PaillierKeyPool &lt;file&gt; &lt;bitLength&gt; &lt;count&gt; [certainty]</code> <br>
+ * which generates the keys in parallel over all the cores. Only primes for which g = 2 is a good generator are stored
+ * (g = n+1 is good for all of them), so every key can be set up with either generator.
+ * 
+ * @author Tal Grinshpoun
+ *
+ */
+public class PaillierKeyPool {
+	
+	private static final int MAGIC = 0x504B5031; // "PKP1"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 16;
+	
+	private static final Map<String, PaillierKeyPool> openPools = new HashMap<>();
+	
+	private final int bitLength;
+	private final int count;
+	private final int primeBytes;
+	private final MappedByteBuffer buffer;
+	
+	private PaillierKeyPool(MappedByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+			throw new IOException("Not a Paillier key pool file");
+		if (buffer.getInt(4) != VERSION)
+			throw new IOException("Unsupported key pool version " + buffer.getInt(4));
+		bitLength = buffer.getInt(8);
+		count = buffer.getInt(12);
+		primeBytes = primeBytes(bitLength);
+		if (count <= 0 || buffer.capacity() != HEADER_SIZE + (long) count * 2 * primeBytes)
+			throw new IOException("Corrupted key pool file");
+	}
+	
+	/**
+	 * Opens (and memory-maps) a key pool file. Pools are opened once and shared by all the agents of the JVM.
+	 * @param path the key pool file
+	 * @return the key pool
+	 * @throws IOException if the file cannot be read or is not a valid key pool
+	 */
+	public static synchronized PaillierKeyPool open(String path) throws IOException {
+		String key = new File(path).getCanonicalPath();
+		PaillierKeyPool pool = openPools.get(key);
+		if (pool == null) {
+			try (RandomAccessFile file = new RandomAccessFile(key, "r");
+					FileChannel channel = file.getChannel()) {
+				pool = new PaillierKeyPool(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+			}
+			openPools.put(key, pool);
+		}
+		return pool;
+	}
+	
+	/**
+	 * Returns the key assigned to an agent in a run.
+	 * @param runSeed the seed of the run (e.g., the "alg-seed" of the problem)
+	 * @param agentId the agent's id
+	 * @param simpleGenerator if true then g = n+1, otherwise g = 2
+	 * @return the cryptosystem
+	 */
+	public Paillier get(long runSeed, int agentId, boolean simpleGenerator) {
+		int index = (int) Math.floorMod(mix(runSeed) + agentId, (long) count);
+		return get(index, simpleGenerator);
+	}
+	
+	/**
+	 * Returns the key at a given index of the pool.
+	 * @param index the index of the key
+	 * @param simpleGenerator if true then g = n+1, otherwise g = 2
+	 * @return the cryptosystem
+	 */
+	public Paillier get(int index, boolean simpleGenerator) {
+		if (index < 0 || index >= count)
+			throw new IndexOutOfBoundsException("Key index " + index + " is out of range [0," + count + ")");
+		ByteBuffer record = buffer.duplicate();
+		record.position(HEADER_SIZE + index * 2 * primeBytes);
+		byte[] bytes = new byte[primeBytes];
+		record.get(bytes);
+		BigInteger p = new BigInteger(1, bytes);
+		record.get(bytes);
+		BigInteger q = new BigInteger(1, bytes);
+		return new Paillier(p, q, simpleGenerator);
+	}
+	
+	/**
+	 * @return number of bits of the moduli in the pool
+	 */
+	public int getBitLength() {
+		return bitLength;
+	}
+	
+	/**
+	 * @return number of keys in the pool
+	 */
+	public int size() {
+		return count;
+	}
+	
+	/**
+	 * Generates a key pool file, generating the keys in parallel.
+	 * @param path the key pool file (overwritten if it exists)
+	 * @param bitLength number of bits of the moduli
+	 * @param count number of keys
+	 * @param certainty The probability that the generated primes are prime will exceed (1 - 2^(-certainty)).
+	 * @param threads number of threads used for generating the keys
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void generate(String path, int bitLength, int count, int certainty, int threads) throws IOException {
+		generate(path, bitLength, count, certainty, threads, false);
+	}
+	
+	/**
+	 * Generates a key pool file, generating the keys in parallel.
+	 * @param path the key pool file (overwritten if it exists)
+	 * @param bitLength number of bits of the moduli
+	 * @param count number of keys
+	 * @param certainty The probability that the generated primes are prime will exceed (1 - 2^(-certainty)).
+	 * @param threads number of threads used for generating the keys
+	 * @param sievePrimes if true then the primes are generated by SievePrimeGenerator, otherwise by the BigInteger constructor
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void generate(String path, final int bitLength, int count, final int certainty, int threads, final boolean sievePrimes) throws IOException {
+		if (bitLength < 16 || bitLength % 2 != 0 || count <= 0)
+			throw new IllegalArgumentException("The bit length must be even (and at least 16) and the count must be positive");
+		final int primeBytes = primeBytes(bitLength);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try (RandomAccessFile file = new RandomAccessFile(path, "rw");
+				FileChannel channel = file.getChannel()) {
+			List<Future<BigInteger[]>> keys = new ArrayList<>(count);
+			for (int i = 0; i < count; i++)
+				keys.add(executor.submit(() -> {
+					SecureRandom rand = new SecureRandom();
+					SievePrimeGenerator primes = sievePrimes ? new SievePrimeGenerator(certainty) : null;
+					BigInteger p, q;
+					/* New primes are chosen until g = 2 is good, as in Paillier.KeyGeneration, so that get never fails */
+					do {
+						p = (primes != null) ? primes.nextPrime(bitLength / 2, rand) : new BigInteger(bitLength / 2, certainty, rand);
+						do {
+							q = (primes != null) ? primes.nextPrime(bitLength / 2, rand) : new BigInteger(bitLength / 2, certainty, rand);
+						} while (q.equals(p));
+					} while (!isGoodForBothGenerators(p, q));
+					return new BigInteger[] { p, q };
+				}));
+			
+			file.setLength(0);
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(VERSION).putInt(bitLength).putInt(count).flip();
+			channel.write(header);
+			ByteBuffer record = ByteBuffer.allocate(2 * primeBytes);
+			for (Future<BigInteger[]> key : keys) {
+				record.clear();
+				for (BigInteger prime : key.get())
+					putUnsigned(record, prime, primeBytes);
+				record.flip();
+				while (record.hasRemaining())
+					channel.write(record);
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			throw new IOException("Key generation failed", e);
+		} finally {
+			executor.shutdown();
+		}
+	}
+	
+	/**
+	 * @return true if a key with the primes p and q can be set up with both g = n+1 and g = 2 (see Paillier.KeySetup)
+	 */
+	private static boolean isGoodForBothGenerators(BigInteger p, BigInteger q) {
+		try {
+			new Paillier(p, q, false);
+			return true;
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+	
+	private static int primeBytes(int bitLength) {
+		return (bitLength / 2 + 7) / 8;
+	}
+	
+	/**
+	 * Writes a nonnegative number as an unsigned big-endian number of exactly width bytes.
+	 */
+	private static void putUnsigned(ByteBuffer buffer, BigInteger value, int width) {
+		byte[] bytes = value.toByteArray();
+		int skip = bytes.length - width; // 1 when toByteArray added a sign byte
+		for (int i = skip; i < 0; i++)
+			buffer.put((byte) 0);
+		buffer.put(bytes, Math.max(skip, 0), bytes.length - Math.max(skip, 0));
+	}
+	
+	/**
+	 * SplitMix64 finalizer, spreading consecutive run seeds over the pool.
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+	
+	public static void main(String[] args) throws IOException {
+		if (args.length < 3) {
+			System.out.println("Usage: PaillierKeyPool <file> <bitLength> <count> [certainty] [sieve]");
+			return;
+		}
+		int bitLength = Integer.parseInt(args[1]);
+		int count = Integer.parseInt(args[2]);
+		int certainty = (args.length > 3) ? Integer.parseInt(args[3]) : 64;
+		boolean sievePrimes = (args.length > 4) && args[4].equals("sieve");
+		int threads = Runtime.getRuntime().availableProcessors();
+		long startTime = System.nanoTime();
+		generate(args[0], bitLength, count, certainty, threads, sievePrimes);
+		System.out.println("Generated " + count + " keys of " + bitLength + " bits with " + threads + " threads in "
+				+ ((System.nanoTime() - startTime) / 1000000) + " milliseconds");
+	}
+}
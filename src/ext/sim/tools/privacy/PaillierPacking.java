@@ -0,0 +1,175 @@
+package ext.sim.tools.privacy;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * Packs several small non-negative plaintexts (slots) into a single Paillier plaintext, so that a vector of k values
+ * that are encrypted with the same public key travels as one ciphertext instead of k.
+ * Slot i occupies bits [i*slotBits, (i+1)*slotBits) of the plaintext, where slotBits = valueBits + headroomBits.
+ * The headroom bits absorb the carries of the homomorphic operations: up to 2^headroomBits packed ciphertexts may be
+ * added (or a packed ciphertext may be multiplied by a scalar below 2^headroomBits), and every slot still decodes
+ * to the sum of its values. Beyond that, a slot overflows into the next one.
+ * Note that the homomorphic operations are slot-wise with the same scalar for all the slots, so vectors that have to
+ * be multiplied by a different scalar in every slot (e.g., a dot product) cannot be packed.
+ *
+ * @author Tal Grinshpoun
+ *
+ */
+public final class PaillierPacking {
+
+	private final PaillierPublicKey publicKey;
+	private final int valueBits, headroomBits, slotBits;
+	private final int slots;
+	private final BigInteger slotMask;
+
+	/**
+	 * Constructs a packing layer for a public key.
+	 * @param publicKey the public key of the packed ciphertexts
+	 * @param valueBits number of bits of every value
+	 * @param headroomBits number of extra bits per slot for the carries of the homomorphic operations
+	 * @throws IllegalArgumentException if not even a single slot fits into the plaintext space
+	 */
+	public PaillierPacking(PaillierPublicKey publicKey, int valueBits, int headroomBits) {
+		this.publicKey = publicKey;
+		this.valueBits = valueBits;
+		this.headroomBits = headroomBits;
+		this.slotBits = valueBits + headroomBits;
+		/* The packed plaintext must stay below n */
+		this.slots = (publicKey.n.bitLength() - 1) / slotBits;
+		if (slots < 1)
+			throw new IllegalArgumentException("A slot of "+slotBits+" bits does not fit into a modulus of "+publicKey.n.bitLength()+" bits");
+		this.slotMask = BigInteger.ONE.shiftLeft(slotBits).subtract(BigInteger.ONE);
+	}
+
+	/**
+	 * Encodes values into a single plaintext.
+	 * @param values at most getSlots() values in [0, 2^valueBits)
+	 * @return the packed plaintext
+	 * @throws IllegalArgumentException if there are too many values or a value does not fit into its slot
+	 */
+	public BigInteger encode(BigInteger[] values) {
+		if (values.length > slots)
+			throw new IllegalArgumentException("Got "+values.length+" values but only "+slots+" slots");
+		BigInteger packed = BigInteger.ZERO;
+		for (int i=values.length-1; i>=0; i--) {
+			if (values[i].signum() < 0 || values[i].bitLength() > valueBits)
+				throw new IllegalArgumentException("Value "+values[i]+" does not fit into "+valueBits+" bits");
+			packed = packed.shiftLeft(slotBits).or(values[i]);
+		}
+		return packed;
+	}
+
+	/**
+	 * Decodes a packed plaintext.
+	 * @param packed the packed plaintext
+	 * @param count number of slots to decode
+	 * @return the values of the first count slots
+	 */
+	public BigInteger[] decode(BigInteger packed, int count) {
+		BigInteger[] values = new BigInteger[count];
+		for (int i=0; i<count; i++) {
+			values[i] = packed.and(slotMask);
+			packed = packed.shiftRight(slotBits);
+		}
+		return values;
+	}
+
+	/**
+	 * Encrypts values into a single packed ciphertext.
+	 * @param values at most getSlots() values in [0, 2^valueBits)
+	 * @param rnd source of the random input of the encryption
+	 * @return the packed ciphertext
+	 */
+	public BigInteger encrypt(BigInteger[] values, Random rnd) {
+		return publicKey.EncryptionWithRandomizer(encode(values), publicKey.newRandomizer(rnd));
+	}
+
+	/**
+	 * Encrypts a vector of any length into ceil(length/getSlots()) packed ciphertexts (in parallel, see PaillierBatch).
+	 * @param values values in [0, 2^valueBits)
+	 * @param rnd source of the random inputs of the encryptions (drawn in advance, see PaillierPublicKey.encryptAll)
+	 * @return the packed ciphertexts
+	 */
+	public BigInteger[] encryptAll(BigInteger[] values, Random rnd) {
+		BigInteger[] packed = new BigInteger[getCiphertextCount(values.length)];
+		for (int j=0; j<packed.length; j++) {
+			BigInteger[] chunk = new BigInteger[Math.min(slots, values.length - j*slots)];
+			System.arraycopy(values, j*slots, chunk, 0, chunk.length);
+			packed[j] = encode(chunk);
+		}
+		return publicKey.encryptAll(packed, rnd);
+	}
+
+	/**
+	 * Slot-wise homomorphic addition.
+	 * @param c1 first packed ciphertext
+	 * @param c2 second packed ciphertext
+	 * @return the packed ciphertext of the slot-wise sums
+	 */
+	public BigInteger add(BigInteger c1, BigInteger c2) {
+		return publicKey.add(c1, c2);
+	}
+
+	/**
+	 * Slot-wise homomorphic multiplication by the same scalar.
+	 * @param c packed ciphertext
+	 * @param k scalar in [0, 2^headroomBits)
+	 * @return the packed ciphertext of the slot-wise products
+	 */
+	public BigInteger multiply(BigInteger c, BigInteger k) {
+		if (k.signum() < 0 || k.bitLength() > headroomBits)
+			throw new IllegalArgumentException("Scalar "+k+" does not fit into the "+headroomBits+" headroom bits");
+		return publicKey.multiply(c, k);
+	}
+
+	/**
+	 * Decrypts a packed ciphertext and unpacks it.
+	 * @param privateKey the private key
+	 * @param c packed ciphertext
+	 * @param count number of slots to decode
+	 * @return the values of the first count slots
+	 */
+	public BigInteger[] decrypt(PaillierPrivateKey privateKey, BigInteger c, int count) {
+		return decode(privateKey.DecryptionCRT(c), count);
+	}
+
+	/**
+	 * Decrypts the packed ciphertexts of a vector (see encryptAll) and unpacks them.
+	 * @param privateKey the private key
+	 * @param c packed ciphertexts
+	 * @param count length of the vector
+	 * @return the vector
+	 */
+	public BigInteger[] decryptAll(PaillierPrivateKey privateKey, BigInteger[] c, int count) {
+		BigInteger[] packed = privateKey.decryptAll(c);
+		BigInteger[] values = new BigInteger[count];
+		for (int j=0; j<packed.length; j++) {
+			int length = Math.min(slots, count - j*slots);
+			System.arraycopy(decode(packed[j], length), 0, values, j*slots, length);
+		}
+		return values;
+	}
+
+	/**
+	 * @param count length of a vector
+	 * @return number of packed ciphertexts of a vector of that length
+	 */
+	public int getCiphertextCount(int count) {
+		return (count + slots - 1) / slots;
+	}
+
+	/**
+	 * @return number of values that fit into a single ciphertext
+	 */
+	public int getSlots() {
+		return slots;
+	}
+
+	/**
+	 * @return number of bits of every slot (value bits plus headroom bits)
+	 */
+	public int getSlotBits() {
+		return slotBits;
+	}
+}
@@ -0,0 +1,109 @@
+package ext.sim.tools.privacy;
+
+import java.math.BigInteger;
+
+/**
+ * The private key of the Paillier cryptosystem: the primes p and q, lambda = lcm(p-1, q-1), and the constants of
+ * both decryption methods, which are precomputed once per key.
+ * 
+ * @author Tal Grinshpoun
+ *
+ */
+public final class PaillierPrivateKey {
+	
+	private final PaillierPublicKey publicKey;
+	/**
+	 * p and q are two large primes. 
+	 * lambda = lcm(p-1, q-1) = (p-1)*(q-1)/gcd(p-1, q-1).
+	 */
+	private final BigInteger p,  q,  lambda;
+	/**
+	 * u = (L(g^lambda mod n^2))^(-1) mod n.
+	 */
+	private final BigInteger u;
+	/**
+	 * Precomputed constants for CRT decryption: psquare = p^2, qsquare = q^2,
+	 * hp = (L_p(g^(p-1) mod p^2))^(-1) mod p, hq = (L_q(g^(q-1) mod q^2))^(-1) mod q and qInverse = q^(-1) mod p.
+	 */
+	private final BigInteger psquare,  qsquare,  hp,  hq,  qInverse;
+	
+	/**
+	 * Constructs the private key that corresponds to a public key.
+	 * @param p first prime
+	 * @param q second prime
+	 * @param publicKey the public key, where n = p*q
+	 * @throws IllegalArgumentException if g is not a valid generator for these primes
+	 */
+	public PaillierPrivateKey(BigInteger p, BigInteger q, PaillierPublicKey publicKey) {
+		this.publicKey = publicKey;
+		this.p = p;
+		this.q = q;
+		BigInteger n = publicKey.n;
+		BigInteger nsquare = publicKey.nsquare;
+		BigInteger g = publicKey.getG();
+		lambda = p.subtract(BigInteger.ONE).multiply(q.subtract(BigInteger.ONE)).divide(
+				p.subtract(BigInteger.ONE).gcd(q.subtract(BigInteger.ONE)));
+		/* check whether g is good.*/
+		BigInteger lg = g.modPow(lambda, nsquare).subtract(BigInteger.ONE).divide(n);
+		if (lg.gcd(n).intValue() != 1)
+			throw new IllegalArgumentException("g is not good. Choose g again.");
+		u = lg.modInverse(n);
+		
+		psquare = p.multiply(p);
+		qsquare = q.multiply(q);
+		hp = g.mod(psquare).modPow(p.subtract(BigInteger.ONE), psquare).subtract(BigInteger.ONE).divide(p).modInverse(p);
+		hq = g.mod(qsquare).modPow(q.subtract(BigInteger.ONE), qsquare).subtract(BigInteger.ONE).divide(q).modInverse(q);
+		qInverse = q.modInverse(p);
+	}
+	
+	/**
+	 * Decrypts ciphertext c. plaintext m = L(c^lambda mod n^2) * u mod n, where u = (L(g^lambda mod n^2))^(-1) mod n.
+	 * @param c ciphertext as a BigInteger
+	 * @return plaintext as a BigInteger
+	 */
+	public BigInteger Decryption(BigInteger c) {
+		return c.modPow(lambda, publicKey.nsquare).subtract(BigInteger.ONE).divide(publicKey.n).multiply(u).mod(publicKey.n);
+	}
+	
+	/**
+	 * Decrypts ciphertext c using the Chinese Remainder Theorem. The plaintext is recovered separately modulo p and modulo q,
+	 * mp = L_p(c^(p-1) mod p^2) * hp mod p and mq = L_q(c^(q-1) mod q^2) * hq mod q, and then recombined into m mod n.
+	 * @param c ciphertext as a BigInteger
+	 * @return plaintext as a BigInteger (the same value as returned by Decryption)
+	 */
+	public BigInteger DecryptionCRT(BigInteger c) {
+		BigInteger mp = c.mod(psquare).modPow(p.subtract(BigInteger.ONE), psquare).subtract(BigInteger.ONE).divide(p).multiply(hp).mod(p);
+		BigInteger mq = c.mod(qsquare).modPow(q.subtract(BigInteger.ONE), qsquare).subtract(BigInteger.ONE).divide(q).multiply(hq).mod(q);
+		return mp.subtract(mq).multiply(qInverse).mod(p).multiply(q).add(mq);
+	}
+	
+	/**
+	 * Decrypts a vector of ciphertexts in parallel with DecryptionCRT (see PaillierBatch).
+	 * @param c ciphertexts
+	 * @return plaintexts, in the order of the ciphertexts
+	 */
+	public BigInteger[] decryptAll(final BigInteger[] c) {
+		return PaillierBatch.map(c.length, i -> DecryptionCRT(c[i]));
+	}
+	
+	/**
+	 * @return the corresponding public key
+	 */
+	public PaillierPublicKey getPublicKey() {
+		return publicKey;
+	}
+	
+	/**
+	 * @return the first prime
+	 */
+	public BigInteger getP() {
+		return p;
+	}
+	
+	/**
+	 * @return the second prime
+	 */
+	public BigInteger getQ() {
+		return q;
+	}
+}
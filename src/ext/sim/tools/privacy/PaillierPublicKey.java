@@ -0,0 +1,273 @@
+package ext.sim.tools.privacy;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The public key of the Paillier cryptosystem (n, n^2 and g), with encryption and the homomorphic operations.
+ * This is what an agent sends to other agents; the primes and the decryption constants stay in PaillierPrivateKey.
+ * Instances are immutable, so a single instance may be shared by all the agents that received it.
+ * The key has no source of random numbers of its own: every randomizer is drawn from a given Random (e.g., a stream
+ * of the RandomnessProvider of the agent), so runs with the same seed encrypt with the same randomizers.
+ * 
+ * @author Tal Grinshpoun
+ *
+ */
+public final class PaillierPublicKey {
+	
+	/**
+	 * n = p*q, where p and q are two large primes.
+	 */
+	public final BigInteger n;
+	/**
+	 * nsquare = n*n
+	 */
+	public final BigInteger nsquare;
+	/**
+	 * the generator, either 2 or n+1.
+	 */
+	private final BigInteger g;
+	/**
+	 * whether g = n+1, in which case g^m mod n^2 = 1 + m*n mod n^2.
+	 */
+	private final boolean simpleGenerator;
+	/**
+	 * number of bits of modulus
+	 */
+	private final int bitLength;
+	/**
+	 * the arithmetic modulo n^2 of the encryption and the homomorphic operations
+	 */
+	private final CiphertextOps ops;
+	
+	/**
+	 * Constructs a public key.
+	 * @param n the modulus
+	 * @param simpleGenerator if true then g = n+1, otherwise g = 2
+	 * @param bitLength number of bits of modulus (used for choosing the random r in the encryption)
+	 */
+	public PaillierPublicKey(BigInteger n, boolean simpleGenerator, int bitLength) {
+		this(n, n.multiply(n), simpleGenerator, bitLength, CiphertextOps.Backend.BIGINTEGER);
+	}
+	
+	private PaillierPublicKey(BigInteger n, BigInteger nsquare, boolean simpleGenerator, int bitLength, CiphertextOps.Backend backend) {
+		this.n = n;
+		this.nsquare = nsquare;
+		this.simpleGenerator = simpleGenerator;
+		this.g = simpleGenerator ? n.add(BigInteger.ONE) : new BigInteger("2");
+		this.bitLength = bitLength;
+		this.ops = backend.create(nsquare);
+	}
+	
+	/**
+	 * Returns the same public key with a different arithmetic backend (the key itself is immutable).
+	 * @param backend the backend of the ciphertext operations
+	 * @return this key if it already uses the backend, otherwise an equivalent key that uses it
+	 */
+	public PaillierPublicKey withBackend(CiphertextOps.Backend backend) {
+		if (ops.getBackend() == backend)
+			return this;
+		return new PaillierPublicKey(n, nsquare, simpleGenerator, bitLength, backend);
+	}
+	
+	/**
+	 * Encrypts plaintext m. ciphertext c = g^m * r^n mod n^2. This function explicitly requires random input r to help with encryption.
+	 * @param m plaintext as a BigInteger
+	 * @param r random plaintext to help with encryption
+	 * @return ciphertext as a BigInteger
+	 */
+	public BigInteger Encryption(BigInteger m, BigInteger r) {
+		return ops.multiply(gPow(m), ops.pow(r, n));
+	}
+	
+	/**
+	 * Encrypts plaintext m with a given randomizer. ciphertext c = g^m * rn mod n^2.
+	 * @param m plaintext as a BigInteger
+	 * @param rn randomizer r^n mod n^2 (e.g., from a PaillierRandomizer)
+	 * @return ciphertext as a BigInteger
+	 */
+	public BigInteger EncryptionWithRandomizer(BigInteger m, BigInteger rn) {
+		return ops.multiply(gPow(m), rn);
+	}
+	
+	/**
+	 * Computes a fresh randomizer r^n mod n^2 for a random r.
+	 * @param rnd source of r
+	 * @return the randomizer as a BigInteger
+	 */
+	public BigInteger newRandomizer(Random rnd) {
+		return randomizerOf(new BigInteger(bitLength, rnd));
+	}
+	
+	/**
+	 * Computes the randomizer r^n mod n^2 of a given random r (e.g., drawn in advance for a batch).
+	 * @param r the random input
+	 * @return the randomizer as a BigInteger
+	 */
+	public BigInteger randomizerOf(BigInteger r) {
+		return ops.pow(r, n);
+	}
+	
+	/**
+	 * Computes g^m mod n^2. When g = n+1 this is 1 + m*n mod n^2, since (1+n)^m = 1 + m*n (mod n^2).
+	 * @param m plaintext as a BigInteger
+	 * @return g^m mod n^2
+	 */
+	public BigInteger gPow(BigInteger m) {
+		if (simpleGenerator)
+			return m.multiply(n).add(BigInteger.ONE).mod(nsquare);
+		/* The plaintexts are in Z_n, so a negative m is encrypted as m mod n */
+		return ops.pow(g, (m.signum() < 0) ? m.mod(n) : m);
+	}
+	
+	/**
+	 * Homomorphic addition: E(m1) * E(m2) mod n^2 = E(m1 + m2).
+	 * @param c1 first ciphertext
+	 * @param c2 second ciphertext
+	 * @return the ciphertext of the sum of the plaintexts
+	 */
+	public BigInteger add(BigInteger c1, BigInteger c2) {
+		return ops.multiply(c1, c2);
+	}
+	
+	/**
+	 * Homomorphic multiplication by a plaintext scalar: E(m)^k mod n^2 = E(k*m).
+	 * @param c ciphertext
+	 * @param k scalar (a negative scalar is taken mod n)
+	 * @return the ciphertext of the product of the plaintext and the scalar
+	 */
+	public BigInteger multiply(BigInteger c, BigInteger k) {
+		return ops.pow(c, (k.signum() < 0) ? k.mod(n) : k);
+	}
+	
+	/**
+	 * Rerandomizes a ciphertext with a given randomizer: c * r^n mod n^2 encrypts the same plaintext as c, but it is
+	 * unlinkable to c. This is cheaper than multiplying by a full Encryption(0), which also computes g^0.
+	 * @param c ciphertext
+	 * @param rn randomizer r^n mod n^2 (e.g., from a PaillierRandomizer)
+	 * @return the rerandomized ciphertext
+	 */
+	public BigInteger rerandomize(BigInteger c, BigInteger rn) {
+		return ops.multiply(c, rn);
+	}
+	
+	/**
+	 * Rerandomizes every c[i] with a fresh randomizer of keys[i], in parallel, with the random inputs drawn from rnd sequentially in advance.
+	 * @param keys public keys
+	 * @param c ciphertexts, c[i] under keys[i] (entries where either is null are skipped)
+	 * @param rnd source of the random inputs
+	 * @return the rerandomized ciphertexts (null where skipped)
+	 */
+	public static BigInteger[] rerandomizeAll(final PaillierPublicKey[] keys, final BigInteger[] c, Random rnd) {
+		final BigInteger[] r = new BigInteger[keys.length];
+		for (int i=0; i<keys.length; i++)
+			if (keys[i] != null && c[i] != null)
+				r[i] = new BigInteger(keys[i].bitLength, rnd);
+		return PaillierBatch.map(keys.length, i -> (r[i] == null) ? null : keys[i].rerandomize(c[i], keys[i].ops.pow(r[i], keys[i].n)));
+	}
+	
+	/**
+	 * Homomorphic dot product: prod E(m_i)^e_i mod n^2 = E(sum m_i*e_i), computed with a single shared squaring chain
+	 * (see MultiExponentiation).
+	 * @param ciphertexts ciphertexts E(m_i)
+	 * @param exponents non-negative plaintext scalars e_i, one for every ciphertext
+	 * @return the ciphertext of the dot product of the plaintexts and the scalars
+	 */
+	public BigInteger dotProduct(BigInteger[] ciphertexts, BigInteger[] exponents) {
+		return ops.dotProduct(ciphertexts, exponents);
+	}
+	
+	/**
+	 * Homomorphic sum: prod E(m_i) mod n^2 = E(sum m_i).
+	 * @param ciphertexts ciphertexts E(m_i)
+	 * @return the ciphertext of the sum of the plaintexts
+	 */
+	public BigInteger product(BigInteger[] ciphertexts) {
+		return ops.product(ciphertexts);
+	}
+	
+	/**
+	 * Interprets a decrypted value as a signed number, i.e., values above n/2 are negative (m - n).
+	 * @param m plaintext in [0, n)
+	 * @return the signed plaintext
+	 */
+	public BigInteger toSigned(BigInteger m) {
+		return (m.compareTo(n.shiftRight(1)) > 0) ? m.subtract(n) : m;
+	}
+	
+	/**
+	 * Encrypts a vector of plaintexts in parallel. The random inputs r are drawn from rnd sequentially before
+	 * the encryptions, so the ciphertexts depend only on the state of rnd.
+	 * @param m plaintexts
+	 * @param rnd source of the random inputs
+	 * @return ciphertexts, in the order of the plaintexts
+	 */
+	public BigInteger[] encryptAll(final BigInteger[] m, Random rnd) {
+		final BigInteger[] r = new BigInteger[m.length];
+		for (int i=0; i<r.length; i++)
+			r[i] = new BigInteger(bitLength, rnd);
+		return PaillierBatch.map(m.length, i -> Encryption(m[i], r[i]));
+	}
+	
+	/**
+	 * Encrypts count zeros in parallel, with random inputs drawn from rnd (see encryptAll(m, rnd)).
+	 * @param count number of ciphertexts
+	 * @param rnd source of the random inputs
+	 * @return count independent encryptions of zero
+	 */
+	public BigInteger[] encryptZeros(int count, Random rnd) {
+		BigInteger[] zeros = new BigInteger[count];
+		Arrays.fill(zeros, BigInteger.ZERO);
+		return encryptAll(zeros, rnd);
+	}
+	
+	/**
+	 * Encrypts zero under each of the given public keys, in parallel, with the random inputs drawn from rnd sequentially in advance.
+	 * @param keys public keys (null entries are skipped)
+	 * @param rnd source of the random inputs
+	 * @return an encryption of zero under keys[i] for every i (null where keys[i] is null)
+	 */
+	public static BigInteger[] encryptZeros(final PaillierPublicKey[] keys, Random rnd) {
+		final BigInteger[] r = new BigInteger[keys.length];
+		for (int i=0; i<keys.length; i++)
+			if (keys[i] != null)
+				r[i] = new BigInteger(keys[i].bitLength, rnd);
+		return PaillierBatch.map(keys.length, i -> (keys[i] == null) ? null : keys[i].ops.pow(r[i], keys[i].n));
+	}
+	
+	/**
+	 * @return the arithmetic modulo n^2 of this key
+	 */
+	public CiphertextOps getOps() {
+		return ops;
+	}
+	
+	/**
+	 * @return the generator g
+	 */
+	public BigInteger getG() {
+		return g;
+	}
+	
+	/**
+	 * @return whether g = n+1
+	 */
+	public boolean isSimpleGenerator() {
+		return simpleGenerator;
+	}
+	
+	/**
+	 * @return number of bits of modulus
+	 */
+	public int getBitLength() {
+		return bitLength;
+	}
+	
+	/**
+	 * @return size in bytes of the key material that is sent (n and g as unsigned numbers)
+	 */
+	public int getSizeInBytes() {
+		return (n.bitLength() + 7) / 8 + (g.bitLength() + 7) / 8;
+	}
+}
@@ -0,0 +1,18 @@
+package ext.sim.tools.privacy;
+
+import java.math.BigInteger;
+
+/**
+ * A source of Paillier randomizers, i.e., values r^n mod n^2 for random r. The randomizer does not depend on the
+ * plaintext, so it is the part of the encryption that can be computed in advance.
+ * 
+ * @author Tal Grinshpoun
+ *
+ */
+public interface PaillierRandomizer {
+	/**
+	 * Returns a fresh randomizer r^n mod n^2 (a value that was already returned is never returned again).
+	 * @return the randomizer
+	 */
+	public BigInteger nextRandomizer();
+}
@@ -0,0 +1,165 @@
+package ext.sim.tools.privacy;
+
+import java.math.BigInteger;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of precomputed randomizers r^n mod n^2 for a single Paillier key, which splits the encryption
+ * into an offline part (computing r^n, done by background workers) and an online part (a single modular multiplication).
+ * 
+ * Whenever the pool drops to the low watermark a background refill is scheduled, which fills the pool up to the
+ * high watermark. If the pool is empty when a randomizer is needed, the randomizer is computed synchronously (a miss).
+ * The background workers are daemon threads shared by all the pools, so a pool that is no longer used does not
+ * hold a thread.
+ * 
+ * Note that the time spent by the background workers is not part of the agent's NCR, which is exactly the
+ * runtime that is moved offline; it is reported by getRefillNanos().
+ * 
+ * @author Tal Grinshpoun
+ *
+ */
+public class PaillierRandomizerPool implements PaillierRandomizer {
+	
+	public static final int DEFAULT_CAPACITY = 64;
+	public static final int DEFAULT_LOW_WATERMARK = 16;
+	public static final int DEFAULT_HIGH_WATERMARK = 64;
+	
+	private static final ExecutorService WORKERS = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "paillier-randomizer-pool");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	
+	private final Paillier paillier;
+	private final BlockingQueue<BigInteger> pool;
+	private final int lowWatermark;
+	private final int highWatermark;
+	private final AtomicBoolean refilling = new AtomicBoolean(false);
+	private volatile boolean shutdown = false;
+	
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong refills = new AtomicLong();
+	private final AtomicLong refillNanos = new AtomicLong();
+	
+	/**
+	 * Constructs a pool with the default capacity and watermarks, and schedules its first refill.
+	 * @param paillier the cryptosystem whose randomizers are pooled
+	 */
+	public PaillierRandomizerPool(Paillier paillier) {
+		this(paillier, DEFAULT_CAPACITY, DEFAULT_LOW_WATERMARK, DEFAULT_HIGH_WATERMARK);
+	}
+	
+	/**
+	 * Constructs a pool and schedules its first refill.
+	 * @param paillier the cryptosystem whose randomizers are pooled
+	 * @param capacity maximal number of pooled randomizers
+	 * @param lowWatermark a refill is scheduled when the pool holds at most this number of randomizers
+	 * @param highWatermark a refill stops when the pool holds this number of randomizers
+	 */
+	public PaillierRandomizerPool(Paillier paillier, int capacity, int lowWatermark, int highWatermark) {
+		if (lowWatermark < 0 || lowWatermark >= highWatermark || highWatermark > capacity)
+			throw new IllegalArgumentException("Watermarks must satisfy 0 <= low < high <= capacity");
+		this.paillier = paillier;
+		this.pool = new ArrayBlockingQueue<>(capacity);
+		this.lowWatermark = lowWatermark;
+		this.highWatermark = highWatermark;
+		refillIfNeeded();
+	}
+	
+	@Override
+	public BigInteger nextRandomizer() {
+		BigInteger rn = pool.poll();
+		if (rn == null) {
+			misses.incrementAndGet();
+			rn = paillier.newRandomizer();
+		}
+		else
+			hits.incrementAndGet();
+		refillIfNeeded();
+		return rn;
+	}
+	
+	/**
+	 * Synchronously fills the pool up to the high watermark (e.g., before the measured part of a run).
+	 */
+	public void fill() {
+		while (!shutdown && pool.size() < highWatermark)
+			pool.offer(paillier.newRandomizer());
+	}
+	
+	/**
+	 * Stops scheduling refills and empties the pool.
+	 */
+	public void shutdown() {
+		shutdown = true;
+		pool.clear();
+	}
+	
+	private void refillIfNeeded() {
+		if (!shutdown && pool.size() <= lowWatermark && refilling.compareAndSet(false, true))
+			WORKERS.execute(new Runnable() {
+				@Override
+				public void run() {
+					refill();
+				}
+			});
+	}
+	
+	private void refill() {
+		long startTime = System.nanoTime();
+		try {
+			while (!shutdown && pool.size() < highWatermark)
+				pool.offer(paillier.newRandomizer());
+		}
+		finally {
+			refillNanos.addAndGet(System.nanoTime() - startTime);
+			refills.incrementAndGet();
+			refilling.set(false);
+		}
+	}
+	
+	/**
+	 * @return number of randomizers that were taken from the pool
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+	
+	/**
+	 * @return number of randomizers that were computed synchronously because the pool was empty
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+	
+	/**
+	 * @return number of background refills that were completed
+	 */
+	public long getRefills() {
+		return refills.get();
+	}
+	
+	/**
+	 * @return total time (in nanoseconds) spent by the background workers on refilling the pool
+	 */
+	public long getRefillNanos() {
+		return refillNanos.get();
+	}
+	
+	/**
+	 * @return current number of pooled randomizers
+	 */
+	public int size() {
+		return pool.size();
+	}
+}
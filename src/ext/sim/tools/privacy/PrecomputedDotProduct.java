@@ -0,0 +1,117 @@
+package ext.sim.tools.privacy;
+
+import java.math.BigInteger;
+
+/**
+ * Homomorphic dot products against a fixed vector of ciphertexts, e.g., the vector Z of a predecessor in PC-SyncBB,
+ * which a successor gets again and again (with different exponents) while the predecessor keeps its value.
+ * The intermediate powers do not depend on the exponents, so they are precomputed once per vector: for every
+ * ciphertext c_i and for the product P of all of them (the encryption of one in the vector Z), the powers
+ * c^(j * 2^(WINDOW*r)) for j in [1, 2^WINDOW) are kept in a table (as in FixedBaseRandomizer), and every dot
+ * product costs about (exponentBits/WINDOW) modular multiplications per base, and no squarings. The multiplications
+ * are reduced with Barrett's method (see MultiExponentiation), whatever the ciphertext operations of the key are.
+ * Exponents that are longer than their table are computed by the ciphertext operations of the key.
+ * The tables are computed by the first dot product, i.e., by the thread that computes it (e.g., a worker of a pool),
+ * and not by the thread that creates the object.
+ *
+ * @author Tal Grinshpoun
+ *
+ */
+public class PrecomputedDotProduct {
+
+	public static final int WINDOW = 3;
+
+	private final CiphertextOps ops;
+	private final MultiExponentiation.Barrett barrett;
+	private final BigInteger[] ciphertexts;
+	private final int length, exponentBits, productExponentBits;
+	/**
+	 * tables[i][r][j] = bases[i]^(j * 2^(WINDOW*r)), where bases[length] is the product of all the bases
+	 */
+	private BigInteger[][][] tables = null;
+
+	/**
+	 * Keeps the ciphertexts for the tables of the ciphertexts and of their product.
+	 * @param publicKey the key of the ciphertexts
+	 * @param ciphertexts the fixed vector
+	 * @param exponentBits number of bits of the exponents of the ciphertexts (e.g., of the maximal cost)
+	 * @param productExponentBits number of bits of the exponent of the product (e.g., of the masks)
+	 */
+	public PrecomputedDotProduct(PaillierPublicKey publicKey, BigInteger[] ciphertexts, int exponentBits, int productExponentBits) {
+		ops = publicKey.getOps();
+		barrett = new MultiExponentiation.Barrett(publicKey.nsquare);
+		this.ciphertexts = ciphertexts;
+		length = ciphertexts.length;
+		this.exponentBits = exponentBits;
+		this.productExponentBits = productExponentBits;
+	}
+
+	/**
+	 * Computes the tables (once).
+	 */
+	private synchronized BigInteger[][][] tables() {
+		if (tables == null) {
+			BigInteger[][][] t = new BigInteger[length + 1][][];
+			for (int i=0; i<length; i++)
+				t[i] = table(ciphertexts[i], exponentBits);
+			t[length] = table(ops.product(ciphertexts), productExponentBits);
+			tables = t;
+		}
+		return tables;
+	}
+
+	/**
+	 * @return the length of the fixed vector
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Computes prod c_i^exponents[i] * (prod c_i)^productExponent, i.e., E(sum m_i*e_i + f*sum m_i).
+	 * @param exponents non-negative exponents, one for every ciphertext
+	 * @param productExponent non-negative exponent of the product
+	 * @return the product of the powers
+	 * @throws IllegalArgumentException if the number of exponents is not the length of the vector
+	 */
+	public BigInteger dotProduct(BigInteger[] exponents, BigInteger productExponent) {
+		if (exponents.length != length)
+			throw new IllegalArgumentException("Got "+exponents.length+" exponents for "+length+" ciphertexts");
+		BigInteger[][][] powers = tables();
+		BigInteger result = power(powers[length], productExponent);
+		for (int i=0; i<length; i++)
+			if (exponents[i].signum() != 0)
+				result = barrett.multiply(result, power(powers[i], exponents[i]));
+		return result;
+	}
+
+	private BigInteger[][] table(BigInteger base, int exponentBits) {
+		int rows = Math.max(1, (exponentBits + WINDOW - 1) / WINDOW);
+		BigInteger[][] table = new BigInteger[rows][1 << WINDOW];
+		for (int r=0; r<rows; r++) {
+			table[r][1] = base;
+			for (int j=2; j<table[r].length; j++)
+				table[r][j] = barrett.multiply(table[r][j-1], base);
+			// base^(2^WINDOW) for the next row
+			base = barrett.multiply(table[r][table[r].length - 1], base);
+		}
+		return table;
+	}
+
+	/**
+	 * @return base^e, from the table of the base if e is short enough
+	 */
+	private BigInteger power(BigInteger[][] table, BigInteger e) {
+		if (e.signum() < 0)
+			throw new IllegalArgumentException("Negative exponent "+e);
+		if (e.bitLength() > table.length * WINDOW)
+			return ops.pow(table[0][1], e);
+		BigInteger result = null;
+		for (int r=0; r<table.length; r++) {
+			int digit = MultiExponentiation.digit(e, r * WINDOW, WINDOW);
+			if (digit != 0)
+				result = (result == null) ? table[r][digit] : barrett.multiply(result, table[r][digit]);
+		}
+		return (result == null) ? BigInteger.ONE : result;
+	}
+}
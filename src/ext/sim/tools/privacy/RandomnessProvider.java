@@ -0,0 +1,116 @@
+package ext.sim.tools.privacy;
+
+import java.security.SecureRandom;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+/**
+ * The source of randomness of an agent: the masks, the exponents and the random inputs of the encryptions.
+ * In the SPLITTABLE mode every stream is split from a SplittableRandom that is seeded from the alg-seed of the problem
+ * (see AbstractSeedableProbGen) and the id of the agent, so a run with the same seed draws the same numbers
+ * (as long as the agents draw in the same order), and drawing costs neither an allocation nor a CAS.
+ * In the SECURE mode all the streams are a single SecureRandom, e.g., for generating production-grade keys.
+ *
+ * @author Tal Grinshpoun
+ *
+ */
+public class RandomnessProvider {
+
+	public enum Mode { SPLITTABLE, SECURE };
+
+	private final Mode mode;
+	private final SplittableRandom root;
+	private final SecureRandom secureRandom;
+
+	/**
+	 * Constructs a provider.
+	 * @param seed the seed of the streams (ignored in the SECURE mode)
+	 * @param mode the mode
+	 */
+	public RandomnessProvider(long seed, Mode mode) {
+		this.mode = mode;
+		this.root = new SplittableRandom(seed);
+		this.secureRandom = (mode == Mode.SECURE) ? new SecureRandom() : null;
+	}
+
+	/**
+	 * Constructs the provider of an agent, so that different agents get independent streams for the same alg-seed.
+	 * @param algSeed the alg-seed of the problem
+	 * @param agentId the id of the agent
+	 * @param mode the mode
+	 * @return the provider
+	 */
+	public static RandomnessProvider forAgent(long algSeed, int agentId, Mode mode) {
+		return new RandomnessProvider(algSeed * 0x9e3779b97f4a7c15L + agentId, mode);
+	}
+
+	/**
+	 * @return a new independent stream (the SecureRandom in the SECURE mode).
+	 * The stream is a java.util.Random, so it can be passed to the BigInteger constructors, and it may be used by several threads.
+	 */
+	public Random newStream() {
+		if (mode == Mode.SECURE)
+			return secureRandom;
+		synchronized (root) {
+			return new SplittableStream(root.split());
+		}
+	}
+
+	/**
+	 * @return the mode
+	 */
+	public Mode getMode() {
+		return mode;
+	}
+
+	/**
+	 * A java.util.Random view of a SplittableRandom. The methods are synchronized since the randomizer pool and the
+	 * batch operations may draw from the stream of a cryptosystem concurrently (uncontended locks are cheap).
+	 */
+	private static class SplittableStream extends Random {
+
+		private static final long serialVersionUID = 1L;
+
+		private final SplittableRandom random;
+
+		SplittableStream(SplittableRandom random) {
+			super(0);
+			this.random = random;
+		}
+
+		@Override
+		protected synchronized int next(int bits) {
+			return (int) (random.nextLong() >>> (64 - bits));
+		}
+
+		@Override
+		public synchronized int nextInt() {
+			return random.nextInt();
+		}
+
+		@Override
+		public synchronized int nextInt(int bound) {
+			return random.nextInt(bound);
+		}
+
+		@Override
+		public synchronized long nextLong() {
+			return random.nextLong();
+		}
+
+		@Override
+		public synchronized double nextDouble() {
+			return random.nextDouble();
+		}
+
+		@Override
+		public synchronized void nextBytes(byte[] bytes) {
+			int i = 0;
+			while (i < bytes.length) {
+				long word = random.nextLong();
+				for (int k=0; k<8 && i<bytes.length; k++, word >>>= 8)
+					bytes[i++] = (byte) word;
+			}
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package ext.sim.tools.privacy;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.function.Consumer;
+
+/**
+ * A secure comparison protocol between the agents: every agent holds an additive share (an integer, possibly negative)
+ * of a secret value, and the initiator of a comparison learns whether the secret (the sum of all the shares) is positive,
+ * e.g., whether the upper bound minus the cost of the CPA is positive in compare_CPA_cost_to_upper_bound() of PC-SyncBB.
+ * The secret must be smaller than 2^getSecretBits() in absolute value.
+ *
+ * The protocol runs over the messages of the agents: the agent implements Party (the sending of the messages of the
+ * protocol and its share), passes the messages of the protocol to handle, and gets the result in the callback of compare.
+ * The aggregator of a comparison (getAggregator) is an agent other than the initiator whose Paillier key is used by the
+ * protocol; the agents must have its public key before they take part in a comparison.
+ * The protocols are secure against semi-honest agents that do not collude with the aggregator.
+ *
+ * @author Tal Grinshpoun
+ *
+ */
+public interface SecureComparison {
+
+	public enum Protocol {
+		BLINDED, DGK;
+
+		/**
+		 * @param party the agent side of the protocol
+		 * @param secretBits bound on the number of bits of the absolute value of the secret
+		 * @return the protocol of an agent
+		 */
+		public SecureComparison create(Party party, int secretBits) {
+			switch (this) {
+			case DGK:
+				return new DgkComparison(party, secretBits);
+			default:
+				return new BlindedComparison(party, secretBits);
+			}
+		}
+	};
+
+	/**
+	 * The agent side of a comparison.
+	 */
+	public interface Party {
+
+		/**
+		 * @return the id of the agent
+		 */
+		public int getId();
+
+		/**
+		 * @return the number of agents
+		 */
+		public int getNumberOfParties();
+
+		/**
+		 * @param initiator the initiator of the comparison
+		 * @return the share of the agent in the secret of a comparison of the initiator
+		 */
+		public BigInteger getShare(int initiator);
+
+		/**
+		 * @param agent an agent
+		 * @return the public key of the agent (also for the agent itself)
+		 */
+		public PaillierPublicKey getPublicKey(int agent);
+
+		/**
+		 * @return the Paillier cryptosystem of the agent
+		 */
+		public Paillier getCryptoSystem();
+
+		/**
+		 * @return the source of the masks of the agent
+		 */
+		public Random getRandom();
+
+		/**
+		 * Sends a message of the protocol, which the recipient passes to handle.
+		 */
+		public void send(int recipient, int compareId, int step, BigInteger[] payload);
+	}
+
+	/**
+	 * Starts a comparison; the agent must not start another comparison until the result arrives.
+	 * @param callback gets true if the secret is positive
+	 */
+	public void compare(Consumer<Boolean> callback);
+
+	/**
+	 * Handles a message of the protocol.
+	 * @param sender the sender of the message
+	 */
+	public void handle(int sender, int compareId, int step, BigInteger[] payload);
+
+	/**
+	 * @param initiator the initiator of a comparison
+	 * @return the aggregator of the comparisons of the initiator: the first agent, or the second agent if the first agent is the initiator
+	 */
+	public static int getAggregator(int initiator) {
+		return (initiator == 0) ? 1 : 0;
+	}
+}